@@ -0,0 +1,293 @@
+/*
+ * RapidMiner GmbH
+ *
+ * Copyright (C) 2021-2021 by RapidMiner GmbH and the contributors
+ *
+ * Complete list of developers available at our web site:
+ *
+ *      www.rapidminer.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package com.rapidminer.extension.xgboost.model;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ml.dmlc.xgboost4j.java.Booster;
+import ml.dmlc.xgboost4j.java.XGBoostError;
+
+
+/**
+ * JVM-wide cache of deserialized native {@link Booster}s. Boosters are keyed by the identity of the serialized model
+ * (see {@link XGBoostModel#getBooster()}).
+ * <p>
+ * Every entry is a pool of booster instances of the same model. A {@link Lease} grants exclusive use of one instance,
+ * thus leased boosters can be used without further synchronization (note that {@link Booster#predict} is synchronized
+ * per instance). Additional instances are only deserialized if all pooled instances are leased, i.e., the size of a
+ * pool is bounded by the number of concurrent users of the model.
+ * <p>
+ * The cache is bounded by both the number of entries and the total size of the pooled boosters, using the size of the
+ * serialized model as estimate for the native memory footprint of an instance. The least recently used entries are
+ * evicted first. Leased instances of evicted entries are disposed once their lease is closed.
+ *
+ * @author Michael Knopf
+ */
+final class BoosterCache {
+
+	/** Loads a booster from its serialized form. */
+	@FunctionalInterface
+	interface Loader {
+		Booster load(byte[] model) throws XGBoostError, IOException;
+	}
+
+	/** Default maximum number of cached boosters. */
+	static final int DEFAULT_MAX_ENTRIES = 32;
+
+	/** Default maximum total size of the cached boosters in bytes. */
+	static final long DEFAULT_MAX_BYTES = 512L << 20;
+
+	private static final BoosterCache INSTANCE = new BoosterCache(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+
+	private final int maxEntries;
+	private final long maxBytes;
+
+	/** Entries in access order, guarded by this. */
+	private final LinkedHashMap<byte[], Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long bytes;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * Creates a new cache with the given bounds.
+	 *
+	 * @param maxEntries the maximum number of cached boosters
+	 * @param maxBytes   the maximum total size of the cached boosters
+	 */
+	BoosterCache(int maxEntries, long maxBytes) {
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return the JVM-wide cache
+	 */
+	static BoosterCache getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Returns a lease for a booster of the given serialized model. A new instance is loaded using the given loader if
+	 * there is no idle instance in the cache. The lease must be closed after use.
+	 *
+	 * @param model  the serialized model
+	 * @param loader the loader used in case of a cache miss
+	 * @return the lease
+	 * @throws XGBoostError if loading the booster fails
+	 * @throws IOException  if the deserialization fails
+	 */
+	Lease acquire(byte[] model, Loader loader) throws XGBoostError, IOException {
+		synchronized (this) {
+			Entry entry = entries.get(model);
+			if (entry != null && !entry.idle.isEmpty()) {
+				hits++;
+				return new Lease(entry, entry.idle.pop());
+			}
+			misses++;
+		}
+
+		// Load outside of the monitor to not block concurrent users of other models.
+		Booster booster = loader.load(model);
+		Entry entry;
+		List<Booster> disposable;
+		synchronized (this) {
+			entry = entries.get(model);
+			if (entry == null) {
+				entry = new Entry(model.length);
+				entries.put(model, entry);
+			}
+			entry.instances++;
+			bytes += entry.size;
+			disposable = evict();
+		}
+
+		disposable.forEach(Booster::dispose);
+		return new Lease(entry, booster);
+	}
+
+	/**
+	 * Evicts all entries. Leased boosters are disposed once their lease is closed.
+	 */
+	void clear() {
+		List<Booster> disposable = new ArrayList<>();
+		synchronized (this) {
+			for (Entry entry : entries.values()) {
+				markEvicted(entry, disposable);
+			}
+			entries.clear();
+			bytes = 0;
+		}
+		disposable.forEach(Booster::dispose);
+	}
+
+	/**
+	 * @return a snapshot of the cache statistics
+	 */
+	synchronized Statistics getStatistics() {
+		return new Statistics(hits, misses, evictions, entries.size(), bytes);
+	}
+
+	/**
+	 * Evicts the least recently used entries until the cache is within its bounds. Must be called while holding the
+	 * monitor.
+	 *
+	 * @return the idle boosters of the evicted entries that need to be disposed
+	 */
+	private List<Booster> evict() {
+		List<Booster> disposable = new ArrayList<>();
+		Iterator<Map.Entry<byte[], Entry>> iterator = entries.entrySet().iterator();
+		while ((entries.size() > maxEntries || bytes > maxBytes) && iterator.hasNext()) {
+			Entry entry = iterator.next().getValue();
+			iterator.remove();
+			bytes -= entry.size * entry.instances;
+			markEvicted(entry, disposable);
+		}
+		return disposable;
+	}
+
+	/**
+	 * Marks the given entry as evicted and collects its idle boosters. Must be called while holding the monitor.
+	 */
+	private void markEvicted(Entry entry, List<Booster> disposable) {
+		evictions++;
+		entry.evicted = true;
+		disposable.addAll(entry.idle);
+		entry.idle.clear();
+	}
+
+	private void release(Entry entry, Booster booster) {
+		boolean dispose;
+		synchronized (this) {
+			dispose = entry.evicted;
+			if (!dispose) {
+				entry.idle.push(booster);
+			}
+		}
+		if (dispose) {
+			booster.dispose();
+		}
+	}
+
+	/**
+	 * Pool of boosters of the same model, the mutable fields are guarded by the cache's monitor.
+	 */
+	private static final class Entry {
+
+		private final long size;
+		private final Deque<Booster> idle = new ArrayDeque<>();
+		private int instances;
+		private boolean evicted;
+
+		private Entry(long size) {
+			this.size = size;
+		}
+
+	}
+
+	/**
+	 * Exclusive reference to a cached booster. The booster must not be used after the lease has been closed.
+	 */
+	final class Lease implements AutoCloseable {
+
+		private final Entry entry;
+		private final Booster booster;
+		private boolean closed;
+
+		private Lease(Entry entry, Booster booster) {
+			this.entry = entry;
+			this.booster = booster;
+		}
+
+		/**
+		 * @return the leased booster
+		 */
+		Booster booster() {
+			return booster;
+		}
+
+		@Override
+		public void close() {
+			if (!closed) {
+				closed = true;
+				release(entry, booster);
+			}
+		}
+
+	}
+
+	/**
+	 * Snapshot of the cache statistics.
+	 */
+	static final class Statistics {
+
+		private final long hits;
+		private final long misses;
+		private final long evictions;
+		private final int entries;
+		private final long bytes;
+
+		private Statistics(long hits, long misses, long evictions, int entries, long bytes) {
+			this.hits = hits;
+			this.misses = misses;
+			this.evictions = evictions;
+			this.entries = entries;
+			this.bytes = bytes;
+		}
+
+		long getHits() {
+			return hits;
+		}
+
+		long getMisses() {
+			return misses;
+		}
+
+		long getEvictions() {
+			return evictions;
+		}
+
+		int getEntries() {
+			return entries;
+		}
+
+		long getBytes() {
+			return bytes;
+		}
+
+		@Override
+		public String toString() {
+			return "hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ", entries=" + entries
+					+ ", bytes=" + bytes;
+		}
+
+	}
+
+}
@@ -26,6 +26,7 @@ import java.util.function.BooleanSupplier;
 
 import ml.dmlc.xgboost4j.java.DMatrix;
 import ml.dmlc.xgboost4j.java.XGBoostError;
+import ml.dmlc.xgboost4j.java.util.BigDenseMatrix;
 
 
 /**
@@ -46,6 +47,25 @@ class CheckedDMatrix extends DMatrix {
 		this.sentinel = null;
 	}
 
+	public CheckedDMatrix(long[] rowHeaders, int[] columnIndices, float[] data, int columns) throws XGBoostError {
+		super(rowHeaders, columnIndices, data, SparseType.CSR, columns);
+		this.sentinel = null;
+	}
+
+	public CheckedDMatrix(BigDenseMatrix data) throws XGBoostError {
+		super(data);
+		this.sentinel = null;
+	}
+
+	/**
+	 * Loads the matrix from the given file. Appending {@code #<cache prefix>} to the path enables XGBoost's
+	 * external-memory mode.
+	 */
+	public CheckedDMatrix(String dataPath) throws XGBoostError {
+		super(dataPath);
+		this.sentinel = null;
+	}
+
 	/**
 	 * Invocations of {@link #getHandle()} will be blocked if the given sentinel is not {@code null} and returns {@code
 	 * false}.
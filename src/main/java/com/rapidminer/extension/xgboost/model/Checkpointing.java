@@ -0,0 +1,320 @@
+/*
+ * RapidMiner GmbH
+ *
+ * Copyright (C) 2021-2021 by RapidMiner GmbH and the contributors
+ *
+ * Complete list of developers available at our web site:
+ *
+ *      www.rapidminer.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package com.rapidminer.extension.xgboost.model;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.rapidminer.belt.column.Column;
+import com.rapidminer.belt.column.Dictionary;
+import com.rapidminer.belt.reader.CategoricalReader;
+import com.rapidminer.belt.reader.NumericReader;
+import com.rapidminer.belt.reader.ObjectReader;
+import com.rapidminer.belt.reader.Readers;
+import com.rapidminer.belt.table.Table;
+import com.rapidminer.belt.util.ColumnRole;
+
+
+/**
+ * Settings and storage of training checkpoints. A checkpoint stores the booster and the boosting state after a
+ * completed round. Checkpoints are written to the configured directory every given number of rounds and/or seconds as
+ * well as when the training is aborted.
+ * <p>
+ * Checkpoints are identified by a fingerprint of the training parameters and data (see {@link #fingerprint}). If
+ * resuming is enabled, the training restarts from the checkpoint with the same fingerprint, if any. The checkpoint is
+ * deleted once the training has completed.
+ *
+ * @author Michael Knopf
+ */
+public final class Checkpointing {
+
+	/** Parameters that do not affect the boosting result and are thus excluded from fingerprints. */
+	private static final List<String> VOLATILE_PARAMETERS = Collections.singletonList("nthread");
+
+	/** Identifies checkpoint files (and their format version). */
+	private static final int MAGIC = 0x58474301;
+
+	private final Path directory;
+	private final int rounds;
+	private final long seconds;
+	private final boolean resume;
+
+	/**
+	 * Creates new checkpoint settings. At least one of the intervals should be positive, otherwise checkpoints are
+	 * only written when the training is aborted.
+	 *
+	 * @param directory the directory the checkpoints are written to
+	 * @param rounds    the number of rounds between checkpoints, {@code 0} to disable
+	 * @param seconds   the minimum number of seconds between checkpoints, {@code 0} to disable
+	 * @param resume    whether to resume from an existing checkpoint
+	 */
+	public Checkpointing(Path directory, int rounds, long seconds, boolean resume) {
+		if (directory == null) {
+			throw new IllegalArgumentException("Checkpoint directory must not be null");
+		}
+		if (rounds < 0 || seconds < 0) {
+			throw new IllegalArgumentException("Checkpoint intervals must not be negative");
+		}
+		this.directory = directory;
+		this.rounds = rounds;
+		this.seconds = seconds;
+		this.resume = resume;
+	}
+
+	/**
+	 * @return whether to resume from an existing checkpoint
+	 */
+	boolean isResume() {
+		return resume;
+	}
+
+	/**
+	 * Checks whether a checkpoint is due.
+	 *
+	 * @param rounds the number of rounds completed since the last checkpoint
+	 * @param nanos  the time elapsed since the last checkpoint
+	 * @return whether to write a checkpoint
+	 */
+	boolean isDue(int rounds, long nanos) {
+		return rounds > 0 && ((this.rounds > 0 && rounds >= this.rounds)
+				|| (seconds > 0 && nanos >= seconds * 1_000_000_000L));
+	}
+
+	/**
+	 * Writes the given state, replacing any previous checkpoint with the same fingerprint. The file is replaced
+	 * atomically if supported by the file system, i.e., a crash while writing does not corrupt the previous
+	 * checkpoint.
+	 */
+	void write(String fingerprint, State state) throws IOException {
+		Files.createDirectories(directory);
+		Path file = getFile(fingerprint);
+		Path temporary = Files.createTempFile(directory, "xgboost-", ".tmp");
+		try {
+			try (OutputStream out = Files.newOutputStream(temporary);
+				 DataOutputStream data = new DataOutputStream(out)) {
+				data.writeInt(MAGIC);
+				data.writeInt(state.iteration);
+				data.writeInt(state.bestIteration);
+				data.writeFloat(state.bestScore);
+				data.writeInt(state.booster.length);
+				data.write(state.booster);
+			}
+			try {
+				Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	/**
+	 * Reads the checkpoint with the given fingerprint.
+	 *
+	 * @return the state or {@code null} if there is no such checkpoint
+	 * @throws IOException if the checkpoint exists but cannot be read
+	 */
+	State read(String fingerprint) throws IOException {
+		Path file = getFile(fingerprint);
+		if (!Files.exists(file)) {
+			return null;
+		}
+		try (InputStream in = Files.newInputStream(file);
+			 DataInputStream data = new DataInputStream(in)) {
+			if (data.readInt() != MAGIC) {
+				throw new IOException("Invalid checkpoint: " + file);
+			}
+			int iteration = data.readInt();
+			int bestIteration = data.readInt();
+			float bestScore = data.readFloat();
+			byte[] booster = new byte[data.readInt()];
+			data.readFully(booster);
+			return new State(booster, iteration, bestIteration, bestScore);
+		}
+	}
+
+	/**
+	 * Deletes the checkpoint with the given fingerprint, if any.
+	 */
+	void delete(String fingerprint) throws IOException {
+		Files.deleteIfExists(getFile(fingerprint));
+	}
+
+	private Path getFile(String fingerprint) {
+		return directory.resolve("xgboost-" + fingerprint + ".checkpoint");
+	}
+
+	/**
+	 * Computes a fingerprint of the given training inputs: the parameters (except for the number of threads), all
+	 * columns of the training and validation data including their roles, and the initial booster (if any).
+	 *
+	 * @param parameters the training parameters
+	 * @param data       the training data
+	 * @param validation the validation data or {@code null}
+	 * @param initial    the serialized initial booster or {@code null}
+	 * @return the fingerprint as hex string
+	 */
+	static String fingerprint(Map<String, String> parameters, Table data, Table validation, byte[] initial) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not supported", e);
+		}
+
+		Map<String, String> sorted = new TreeMap<>(parameters);
+		VOLATILE_PARAMETERS.forEach(sorted::remove);
+		update(digest, sorted.toString());
+		update(digest, data);
+		if (validation != null) {
+			update(digest, validation);
+		}
+		if (initial != null) {
+			digest.update(initial);
+		}
+
+		StringBuilder builder = new StringBuilder();
+		for (byte b : digest.digest()) {
+			builder.append(String.format("%02x", b));
+		}
+		return builder.toString();
+	}
+
+	private static void update(MessageDigest digest, String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+		digest.update(bytes);
+	}
+
+	private static void update(MessageDigest digest, Table table) {
+		List<String> labels = new ArrayList<>(table.labels());
+		Collections.sort(labels);
+		update(digest, labels.size() + ":" + table.height());
+
+		ByteBuffer buffer = ByteBuffer.allocate(1 << 13);
+		for (String label : labels) {
+			Column column = table.column(label);
+			update(digest, label + ":" + column.type().id() + ":"
+					+ table.getFirstMetaData(label, ColumnRole.class));
+			switch (column.type().category()) {
+				case NUMERIC:
+					NumericReader numeric = Readers.numericReader(column);
+					while (numeric.hasRemaining()) {
+						buffer = flushIfFull(digest, buffer, Double.BYTES);
+						buffer.putDouble(numeric.read());
+					}
+					break;
+				case CATEGORICAL:
+					Dictionary dictionary = column.getDictionary();
+					for (Dictionary.Entry entry : dictionary) {
+						update(digest, entry.getIndex() + "=" + entry.getValue());
+					}
+					CategoricalReader categorical = Readers.categoricalReader(column);
+					while (categorical.hasRemaining()) {
+						buffer = flushIfFull(digest, buffer, Integer.BYTES);
+						buffer.putInt(categorical.read());
+					}
+					break;
+				default:
+					// the buffer is empty at this point, the values can be digested directly
+					ObjectReader<Object> objects = Readers.objectReader(column, Object.class);
+					while (objects.hasRemaining()) {
+						update(digest, String.valueOf(objects.read()));
+					}
+					break;
+			}
+			// flush the remaining values, the next column starts with an empty buffer
+			buffer.flip();
+			digest.update(buffer);
+			buffer.clear();
+		}
+	}
+
+	private static ByteBuffer flushIfFull(MessageDigest digest, ByteBuffer buffer, int required) {
+		if (buffer.remaining() < required) {
+			buffer.flip();
+			digest.update(buffer);
+			buffer.clear();
+		}
+		return buffer;
+	}
+
+	/**
+	 * Booster and boosting state after a completed round.
+	 */
+	static final class State {
+
+		private final byte[] booster;
+		private final int iteration;
+		private final int bestIteration;
+		private final float bestScore;
+
+		/**
+		 * @param booster       the serialized booster
+		 * @param iteration     the number of completed rounds
+		 * @param bestIteration the round with the best evaluation score so far
+		 * @param bestScore     the best evaluation score so far
+		 */
+		State(byte[] booster, int iteration, int bestIteration, float bestScore) {
+			this.booster = booster;
+			this.iteration = iteration;
+			this.bestIteration = bestIteration;
+			this.bestScore = bestScore;
+		}
+
+		byte[] getBooster() {
+			return booster;
+		}
+
+		int getIteration() {
+			return iteration;
+		}
+
+		int getBestIteration() {
+			return bestIteration;
+		}
+
+		float getBestScore() {
+			return bestScore;
+		}
+
+	}
+
+}
@@ -0,0 +1,211 @@
+/*
+ * RapidMiner GmbH
+ *
+ * Copyright (C) 2021-2021 by RapidMiner GmbH and the contributors
+ *
+ * Complete list of developers available at our web site:
+ *
+ *      www.rapidminer.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package com.rapidminer.extension.xgboost.model;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import com.rapidminer.belt.column.Column;
+import com.rapidminer.belt.reader.CategoricalReader;
+import com.rapidminer.belt.reader.Readers;
+import com.rapidminer.belt.table.Table;
+import com.rapidminer.belt.util.ColumnRole;
+
+
+/**
+ * Fold assignment and result of the cross-validation implemented by {@link XGBoostWrapper#crossValidate}. Also
+ * provides the holdout split used by {@link XGBoostWrapper#trainWithHoldout}.
+ *
+ * @author Michael Knopf
+ */
+public final class CrossValidation {
+
+	private CrossValidation() {
+		throw new AssertionError("Static utility class must not be initialized");
+	}
+
+	/**
+	 * Thrown if the rows of a table cannot be split as requested, e.g., because the table is too small.
+	 */
+	public static final class SplitException extends IllegalArgumentException {
+
+		private static final long serialVersionUID = 5372390814125709381L;
+
+		SplitException(String message) {
+			super(message);
+		}
+
+	}
+
+	/**
+	 * Randomly assigns the rows of the given table to the given number of folds of (almost) equal size. Folds are
+	 * stratified for categorical labels, i.e., every fold contains (almost) the same share of every class.
+	 *
+	 * @param data  the table with label column
+	 * @param folds the number of folds
+	 * @param seed  the seed of the random number generator
+	 * @return the row indices per fold in ascending order
+	 */
+	static int[][] assignFolds(Table data, int folds, long seed) {
+		int height = data.height();
+		int[] rows = shuffle(data, seed, null);
+		int[] fold = new int[height];
+		for (int i = 0; i < height; i++) {
+			fold[rows[i]] = i % folds;
+		}
+		int[][] assignment = new int[folds][];
+		for (int f = 0; f < folds; f++) {
+			int current = f;
+			assignment[f] = IntStream.range(0, height).filter(row -> fold[row] == current).toArray();
+		}
+		return assignment;
+	}
+
+	/**
+	 * Randomly splits the rows of the given table into a training and a holdout set. The split is stratified for
+	 * categorical labels, i.e., both sets contain (almost) the same share of every class. Rows are assigned by a
+	 * seeded shuffle, i.e., the split is reproducible but differs from the one of RapidMiner's Split Data operator.
+	 *
+	 * @param data  the table with label column
+	 * @param ratio the share of rows in the training set
+	 * @param seed  the seed of the random number generator
+	 * @return the training and the holdout rows, each in ascending order
+	 */
+	static int[][] split(Table data, double ratio, long seed) {
+		int height = data.height();
+		int[] classes = new int[height];
+		int[] rows = shuffle(data, seed, classes);
+		boolean[] training = new boolean[height];
+		int trainingCount = 0;
+		int start = 0;
+		while (start < height) {
+			// Rows of the same class are consecutive, every class contributes the same share to the training set.
+			int end = start;
+			while (end < height && classes[rows[end]] == classes[rows[start]]) {
+				end++;
+			}
+			int count = (int) Math.round((end - start) * ratio);
+			for (int i = start; i < start + count; i++) {
+				training[rows[i]] = true;
+			}
+			trainingCount += count;
+			start = end;
+		}
+		int[][] split = {new int[trainingCount], new int[height - trainingCount]};
+		int nextTraining = 0;
+		int nextHoldout = 0;
+		for (int row = 0; row < height; row++) {
+			if (training[row]) {
+				split[0][nextTraining++] = row;
+			} else {
+				split[1][nextHoldout++] = row;
+			}
+		}
+		return split;
+	}
+
+	/**
+	 * Shuffles the rows of the given table, then sorts them by class (stable) if the label is categorical. Stores the
+	 * class index per row in the given array (if not {@code null}), all zero for numeric labels.
+	 */
+	private static int[] shuffle(Table data, long seed, int[] classes) {
+		int height = data.height();
+		Integer[] rows = new Integer[height];
+		for (int i = 0; i < height; i++) {
+			rows[i] = i;
+		}
+		// Fisher-Yates shuffle, then a stable sort by class such that consecutive assignments stratify.
+		Random random = new Random(seed);
+		for (int i = height - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			Integer swap = rows[i];
+			rows[i] = rows[j];
+			rows[j] = swap;
+		}
+		Column label = data.select().withMetaData(ColumnRole.LABEL).columns().get(0);
+		if (label.type().category() == Column.Category.CATEGORICAL) {
+			int[] rowClasses = classes == null ? new int[height] : classes;
+			CategoricalReader reader = Readers.categoricalReader(label);
+			for (int i = 0; i < height; i++) {
+				rowClasses[i] = reader.read();
+			}
+			Arrays.sort(rows, Comparator.comparingInt(row -> rowClasses[row]));
+		}
+
+		int[] shuffled = new int[height];
+		for (int i = 0; i < height; i++) {
+			shuffled[i] = rows[i];
+		}
+		return shuffled;
+	}
+
+	/**
+	 * Returns the rows not contained in the given sorted fold.
+	 */
+	static int[] complement(int[] fold, int height) {
+		int[] rest = new int[height - fold.length];
+		int next = 0;
+		int position = 0;
+		for (int row = 0; row < height; row++) {
+			if (next < fold.length && fold[next] == row) {
+				next++;
+			} else {
+				rest[position++] = row;
+			}
+		}
+		return rest;
+	}
+
+	/**
+	 * The model trained on all rows and the evaluation metrics per fold.
+	 */
+	public static final class Result {
+
+		private final XGBoostModel model;
+		private final Table foldMetrics;
+
+		Result(XGBoostModel model, Table foldMetrics) {
+			this.model = model;
+			this.foldMetrics = foldMetrics;
+		}
+
+		/**
+		 * @return the model trained on all rows
+		 */
+		public XGBoostModel getModel() {
+			return model;
+		}
+
+		/**
+		 * @return one row per fold: the fold number and the final value of every evaluation metric on the held-out
+		 * rows, e.g., {@code test-rmse}
+		 */
+		public Table getFoldMetrics() {
+			return foldMetrics;
+		}
+
+	}
+
+}
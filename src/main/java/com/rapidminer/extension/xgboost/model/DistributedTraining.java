@@ -0,0 +1,235 @@
+/*
+ * RapidMiner GmbH
+ *
+ * Copyright (C) 2021-2021 by RapidMiner GmbH and the contributors
+ *
+ * Complete list of developers available at our web site:
+ *
+ *      www.rapidminer.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package com.rapidminer.extension.xgboost.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+import org.apache.commons.logging.LogFactory;
+
+import ml.dmlc.xgboost4j.java.RabitTracker;
+import ml.dmlc.xgboost4j.java.XGBoost;
+import ml.dmlc.xgboost4j.java.XGBoostError;
+
+
+/**
+ * Coordinates the distributed training of a single booster across multiple worker processes. Every worker trains on
+ * its own partition of the rows, the workers synchronize via XGBoost's Rabit collective using a tracker started by
+ * this JVM.
+ * <p>
+ * The partitions are passed to the workers as XGBoost binary buffers. The workers are started by a {@link
+ * WorkerLauncher}, by default as child processes of this JVM (see {@link #LOCAL}). Launchers for remote hosts must
+ * ensure that the buffers are accessible under the same paths.
+ * <p>
+ * Take note that the tracker bundled with XGBoost4J is a Python script, i.e., a {@code python} executable is required
+ * on the host of the tracker.
+ *
+ * @author Michael Knopf
+ */
+final class DistributedTraining {
+
+	/** Starts a worker, i.e., runs {@link RabitWorker} with the given arguments and environment. */
+	@FunctionalInterface
+	interface WorkerLauncher {
+		Process launch(List<String> arguments, Map<String, String> environment, Path log) throws IOException;
+	}
+
+	/** Starts workers as child processes of this JVM using the same Java runtime. */
+	static final WorkerLauncher LOCAL = (arguments, environment, log) -> {
+		List<String> command = new ArrayList<>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		command.add("-cp");
+		command.add(getWorkerClasspath());
+		command.add(RabitWorker.class.getName());
+		command.addAll(arguments);
+		ProcessBuilder builder = new ProcessBuilder(command)
+				.redirectErrorStream(true)
+				.redirectOutput(log.toFile());
+		builder.environment().putAll(environment);
+		return builder.start();
+	};
+
+	/** Interval in milliseconds in which the workers and the sentinel are polled. */
+	private static final long POLL_INTERVAL = 100;
+
+	/** Maximum number of characters of a worker log included in error messages. */
+	private static final int MAX_LOG_LENGTH = 2000;
+
+	private DistributedTraining() {
+		throw new AssertionError("Static utility class must not be initialized");
+	}
+
+	/**
+	 * Trains a booster on the given partitions, using one worker per partition.
+	 *
+	 * @param partitions    the binary buffers of the training partitions
+	 * @param validation    the binary buffer of the validation data or {@code null}
+	 * @param parameters    the training parameters
+	 * @param rounds        the number of boosting rounds
+	 * @param earlyStopping the number of early stopping rounds
+	 * @param directory     the working directory for parameters, logs and the resulting model
+	 * @param sentinel      the training is aborted as soon as the sentinel returns {@code false}
+	 * @param launcher      the launcher used to start the workers
+	 * @return the result or {@code null} if the training was aborted
+	 * @throws XGBoostError if the tracker or one of the workers fails
+	 * @throws IOException  if the workers cannot be started or their output cannot be read
+	 */
+	static Result train(List<Path> partitions, Path validation, Map<String, String> parameters, int rounds,
+						int earlyStopping, Path directory, BooleanSupplier sentinel, WorkerLauncher launcher)
+			throws XGBoostError, IOException {
+		Path parameterFile = directory.resolve("parameters.properties");
+		Properties properties = new Properties();
+		properties.putAll(parameters);
+		try (OutputStream out = Files.newOutputStream(parameterFile)) {
+			properties.store(out, null);
+		}
+		Path modelFile = directory.resolve("model.bin");
+
+		int workers = partitions.size();
+		RabitTracker tracker = new RabitTracker(workers);
+		List<Process> processes = new ArrayList<>(workers);
+		List<Path> logs = new ArrayList<>(workers);
+		try {
+			// The Python tracker does not support timeouts, the workers are monitored below instead.
+			if (!tracker.start(0)) {
+				throw new XGBoostError("Failed to start Rabit tracker");
+			}
+			for (int rank = 0; rank < workers; rank++) {
+				List<String> arguments = new ArrayList<>(Arrays.asList(parameterFile.toString(),
+						Integer.toString(rounds), Integer.toString(earlyStopping), partitions.get(rank).toString(),
+						modelFile.toString()));
+				if (validation != null) {
+					arguments.add(validation.toString());
+				}
+				Map<String, String> environment = new HashMap<>(tracker.getWorkerEnvs());
+				environment.put(RabitWorker.ENVIRONMENT_PREFIX + "TASK_ID", Integer.toString(rank));
+				Path log = directory.resolve("worker-" + rank + ".log");
+				logs.add(log);
+				processes.add(launcher.launch(arguments, environment, log));
+			}
+
+			// A failing worker blocks the remaining ones, thus all workers are polled at once.
+			boolean running = true;
+			while (running) {
+				running = false;
+				for (int rank = 0; rank < workers; rank++) {
+					Process process = processes.get(rank);
+					if (process.isAlive()) {
+						running = true;
+					} else if (process.exitValue() != 0) {
+						throw new XGBoostError("Worker " + rank + " failed with exit code " + process.exitValue()
+								+ ": " + readLog(logs.get(rank)));
+					}
+				}
+				if (running) {
+					if (!sentinel.getAsBoolean()) {
+						return null;
+					}
+					Thread.sleep(POLL_INTERVAL);
+				}
+			}
+
+			byte[] model = Files.readAllBytes(modelFile);
+			int iterations = Integer.parseInt(new String(Files.readAllBytes(
+					RabitWorker.getIterationsFile(modelFile)), StandardCharsets.UTF_8).trim());
+			return new Result(model, iterations);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for workers", e);
+		} finally {
+			// Destroying terminated processes has no effect.
+			processes.forEach(Process::destroy);
+			tracker.stop();
+		}
+	}
+
+	/**
+	 * Returns the classpath of the worker processes, i.e., the locations of the extension, of XGBoost4J and of its
+	 * logging dependency.
+	 */
+	private static String getWorkerClasspath() throws IOException {
+		Set<String> entries = new LinkedHashSet<>();
+		for (Class<?> type : Arrays.asList(RabitWorker.class, XGBoost.class, LogFactory.class)) {
+			CodeSource source = type.getProtectionDomain().getCodeSource();
+			if (source != null) {
+				try {
+					entries.add(Paths.get(source.getLocation().toURI()).toString());
+				} catch (URISyntaxException e) {
+					throw new IOException("Cannot resolve classpath of worker", e);
+				}
+			}
+		}
+		return String.join(File.pathSeparator, entries);
+	}
+
+	private static String readLog(Path log) {
+		try {
+			String content = new String(Files.readAllBytes(log), StandardCharsets.UTF_8).trim();
+			return content.length() > MAX_LOG_LENGTH
+					? content.substring(content.length() - MAX_LOG_LENGTH)
+					: content;
+		} catch (IOException e) {
+			return "no log available";
+		}
+	}
+
+	/**
+	 * The serialized booster and the number of completed boosting iterations.
+	 */
+	static final class Result {
+
+		private final byte[] model;
+		private final int iterations;
+
+		private Result(byte[] model, int iterations) {
+			this.model = model;
+			this.iterations = iterations;
+		}
+
+		byte[] getModel() {
+			return model;
+		}
+
+		int getIterations() {
+			return iterations;
+		}
+
+	}
+
+}
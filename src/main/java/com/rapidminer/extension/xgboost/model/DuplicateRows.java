@@ -0,0 +1,183 @@
+/*
+ * RapidMiner GmbH
+ *
+ * Copyright (C) 2021-2021 by RapidMiner GmbH and the contributors
+ *
+ * Complete list of developers available at our web site:
+ *
+ *      www.rapidminer.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package com.rapidminer.extension.xgboost.model;
+
+import java.util.Arrays;
+
+import com.rapidminer.belt.reader.CategoricalReader;
+import com.rapidminer.belt.reader.NumericReader;
+import com.rapidminer.belt.reader.Readers;
+import com.rapidminer.belt.table.Table;
+
+
+/**
+ * Groups the rows of a training table that XGBoost cannot tell apart: rows with the same label and the same encoded
+ * features, where missing values and zeros are considered equal (neither is stored in the native matrices). Every group
+ * can be replaced by a single row weighted with the sum of the group's weights. The gradient statistics, and thus the
+ * trained model, stay the same (row subsampling aside).
+ *
+ * @author Michael Knopf
+ */
+final class DuplicateRows {
+
+	/** Key of missing values and zeros. */
+	private static final int MISSING = 0;
+
+	private final int[] rows;
+	private final float[] weights;
+
+	private DuplicateRows(int[] rows, float[] weights) {
+		this.rows = rows;
+		this.weights = weights;
+	}
+
+	/**
+	 * Groups the rows of the given table.
+	 *
+	 * @param table    the training table
+	 * @param encoding the encoding plan adapted to the table
+	 * @param label    the converted label
+	 * @param weights  the converted weights, {@code null} if the table has no weight column
+	 * @return the groups or {@code null} if there are no duplicate rows
+	 */
+	static DuplicateRows find(Table table, FeatureEncoding encoding, float[] label, float[] weights) {
+		int height = table.height();
+		int[][] keys = new int[encoding.size() + 1][];
+		long[] hashes = new long[height];
+		for (int i = 0; i < encoding.size(); i++) {
+			keys[i] = createKeys(table, encoding, i);
+		}
+		int[] labelKeys = new int[height];
+		for (int row = 0; row < height; row++) {
+			labelKeys[row] = Float.floatToIntBits(label[row]);
+		}
+		keys[encoding.size()] = labelKeys;
+		for (int[] column : keys) {
+			for (int row = 0; row < height; row++) {
+				hashes[row] = mix(hashes[row] ^ column[row]);
+			}
+		}
+
+		// Open addressing, the slots hold the group index plus one.
+		int capacity = Integer.highestOneBit(Math.max(height, 1)) << 1;
+		int mask = capacity - 1;
+		int[] slots = new int[capacity];
+		int[] representatives = new int[height];
+		double[] sums = new double[height];
+		int groups = 0;
+		for (int row = 0; row < height; row++) {
+			int slot = (int) hashes[row] & mask;
+			while (true) {
+				int group = slots[slot] - 1;
+				if (group < 0) {
+					representatives[groups] = row;
+					slots[slot] = ++groups;
+					group = groups - 1;
+				} else if (hashes[representatives[group]] != hashes[row]
+						|| !equals(keys, representatives[group], row)) {
+					slot = (slot + 1) & mask;
+					continue;
+				}
+				sums[group] += weights == null ? 1 : weights[row];
+				break;
+			}
+		}
+
+		if (groups == height) {
+			return null;
+		}
+		float[] groupWeights = new float[groups];
+		for (int group = 0; group < groups; group++) {
+			groupWeights[group] = (float) sums[group];
+		}
+		return new DuplicateRows(Arrays.copyOf(representatives, groups), groupWeights);
+	}
+
+	/**
+	 * @return the first row of every group in ascending order
+	 */
+	int[] rows() {
+		return rows;
+	}
+
+	/**
+	 * @return the summed weights (or row counts) of the groups
+	 */
+	float[] weights() {
+		return weights;
+	}
+
+	/**
+	 * Maps the values of the given column to integer keys that are equal if and only if the encoded values are equal.
+	 */
+	private static int[] createKeys(Table table, FeatureEncoding encoding, int column) {
+		int height = table.height();
+		int[] keys = new int[height];
+		switch (encoding.kind(column)) {
+			case NUMERIC:
+				NumericReader numericReader = Readers.numericReader(table.column(encoding.label(column)));
+				for (int row = 0; row < height; row++) {
+					float value = (float) numericReader.read();
+					keys[row] = Float.isNaN(value) || value == 0 ? MISSING : Float.floatToIntBits(value);
+				}
+				break;
+			case BICATEGORICAL:
+				// The negative class is encoded as zero, i.e., it is indistinguishable from missing values.
+				int positive = encoding.positive(column);
+				CategoricalReader bicategoricalReader = Readers.categoricalReader(table.column(encoding.label(column)));
+				for (int row = 0; row < height; row++) {
+					keys[row] = bicategoricalReader.read() == positive ? 1 : MISSING;
+				}
+				break;
+			default:
+				int[] indexMap = encoding.indexMap(column);
+				CategoricalReader categoricalReader = Readers.categoricalReader(table.column(encoding.label(column)));
+				for (int row = 0; row < height; row++) {
+					int index = categoricalReader.read();
+					keys[row] = index > 0 && indexMap[index] >= 0 ? indexMap[index] + 1 : MISSING;
+				}
+				break;
+		}
+		return keys;
+	}
+
+	private static boolean equals(int[][] keys, int a, int b) {
+		for (int[] column : keys) {
+			if (column[a] != column[b]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Finalization step of MurmurHash3 (64 bit). */
+	private static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb93e2d1a87a3L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+}
@@ -0,0 +1,111 @@
+/*
+ * RapidMiner GmbH
+ *
+ * Copyright (C) 2021-2021 by RapidMiner GmbH and the contributors
+ *
+ * Complete list of developers available at our web site:
+ *
+ *      www.rapidminer.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package com.rapidminer.extension.xgboost.model;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+
+/**
+ * Settings of the external-memory training mode. In this mode, the training data is not converted to a native matrix
+ * in memory. Instead, it is encoded one page of rows at a time and spilled to a LIBSVM file in a private cache
+ * directory. XGBoost then trains from this file using its own on-disk page cache next to it, i.e., neither the heap nor
+ * native memory need to hold the full data. The cache directory is deleted when the training completes, fails or is
+ * aborted.
+ *
+ * @author Michael Knopf
+ */
+public final class ExternalMemory {
+
+	/** The default number of rows encoded and written at a time. */
+	public static final int DEFAULT_PAGE_ROWS = 100_000;
+
+	private final Path directory;
+	private final int pageRows;
+
+	/**
+	 * Creates new external-memory settings.
+	 *
+	 * @param directory the directory the cache directories are created in, {@code null} for the system's temporary
+	 *                  directory
+	 * @param pageRows  the number of rows encoded and written at a time
+	 */
+	public ExternalMemory(Path directory, int pageRows) {
+		if (pageRows < 1) {
+			throw new IllegalArgumentException("Page size must be positive");
+		}
+		this.directory = directory;
+		this.pageRows = pageRows;
+	}
+
+	/**
+	 * @return the number of rows encoded and written at a time
+	 */
+	int getPageRows() {
+		return pageRows;
+	}
+
+	/**
+	 * Creates a new, empty cache directory for a single training.
+	 *
+	 * @return the cache directory
+	 * @throws IOException if the directory cannot be created
+	 */
+	Path createCache() throws IOException {
+		if (directory == null) {
+			return Files.createTempDirectory("xgboost-");
+		}
+		Files.createDirectories(directory);
+		return Files.createTempDirectory(directory, "xgboost-");
+	}
+
+	/**
+	 * Deletes the given cache directory including all files written by XGBoost. The native matrices using the cache
+	 * must be disposed before. Files that cannot be deleted right away (e.g., still locked by the file system) are
+	 * deleted when the JVM exits.
+	 *
+	 * @param cache the cache directory
+	 */
+	static void deleteCache(Path cache) {
+		List<Path> files;
+		try (Stream<Path> paths = Files.walk(cache)) {
+			files = paths.collect(Collectors.toList());
+		} catch (IOException e) {
+			cache.toFile().deleteOnExit();
+			return;
+		}
+		// Files are deleted before their directories.
+		for (int i = files.size() - 1; i >= 0; i--) {
+			try {
+				Files.deleteIfExists(files.get(i));
+			} catch (IOException e) {
+				files.get(i).toFile().deleteOnExit();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,638 @@
+/*
+ * RapidMiner GmbH
+ *
+ * Copyright (C) 2021-2021 by RapidMiner GmbH and the contributors
+ *
+ * Complete list of developers available at our web site:
+ *
+ *      www.rapidminer.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package com.rapidminer.extension.xgboost.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.rapidminer.belt.column.Column;
+import com.rapidminer.belt.column.Columns;
+import com.rapidminer.belt.column.Dictionary;
+import com.rapidminer.belt.reader.CategoricalReader;
+import com.rapidminer.belt.reader.NumericReader;
+import com.rapidminer.belt.reader.Readers;
+import com.rapidminer.belt.table.Table;
+import com.rapidminer.belt.util.ColumnRole;
+
+
+/**
+ * Compiled plan for encoding the feature columns of a table: the column order, the position of every column in the
+ * encoded matrix, and the dictionary-dependent codes of categorical columns. Plans are immutable and can be shared
+ * between threads.
+ * <p>
+ * A plan is compiled once from the training data and reused for every conversion of data with the same schema. As long
+ * as the dictionaries of the converted table match the dictionaries the plan was compiled for, applying the plan
+ * requires no further setup (see {@link #adapt(Table)}).
+ * <p>
+ * Plans compiled for training can exclude columns that no split can use (see {@link #compilePruned}). The excluded
+ * columns are skipped by every conversion using the plan, including the conversions for prediction.
+ * <p>
+ * Plans are configured by options passed along with the XGBoost parameters (see {@link #isOption(String)}). The
+ * options of a plan are persisted with the model (see {@link #options()}) such that the same plan can be compiled from
+ * the training header.
+ *
+ * @author Michael Knopf
+ */
+final class FeatureEncoding {
+
+	/** The supported column encodings. */
+	enum Kind {
+		/** Numeric column encoded as is. */
+		NUMERIC,
+		/** Categorical column with at most two classes encoded as single {@code 0}/{@code 1} feature. */
+		BICATEGORICAL,
+		/** Categorical column encoded as one unary feature per class. */
+		ONE_HOT,
+		/** Categorical column encoded as one unary feature per hash bucket, shared by all classes in the bucket. */
+		HASHED,
+		/**
+		 * Categorical column encoded as single feature holding the position of the class in the dictionary, starting at
+		 * {@code 1} since zeros mark missing values.
+		 */
+		INDEX
+	}
+
+	/** Prefix of the options configuring the encoding, as opposed to XGBoost parameters. */
+	private static final String OPTION_PREFIX = "rapidminer.";
+
+	/** The default number of hash buckets. */
+	static final int DEFAULT_HASHING_BUCKETS = 1024;
+
+	/** Option listing the pruned columns. */
+	static final String PRUNED_FEATURES = OPTION_PREFIX + "pruned_features";
+
+	private final String[] labels;
+	private final Kind[] kinds;
+	private final int[] offsets;
+	private final int[] widths;
+	private final Dictionary[] dictionaries;
+	private final int[] negatives;
+	private final int[] positives;
+	private final int[][] indexMaps;
+	private final long width;
+	private final String[] pruned;
+	private final int hashingThreshold;
+	private final int hashingBuckets;
+	private final boolean indexEncoding;
+
+	private FeatureEncoding(String[] labels, Kind[] kinds, int[] offsets, int[] widths, Dictionary[] dictionaries,
+							int[] negatives, int[] positives, int[][] indexMaps, long width, String[] pruned,
+							int hashingThreshold, int hashingBuckets, boolean indexEncoding) {
+		this.labels = labels;
+		this.kinds = kinds;
+		this.offsets = offsets;
+		this.widths = widths;
+		this.dictionaries = dictionaries;
+		this.negatives = negatives;
+		this.positives = positives;
+		this.indexMaps = indexMaps;
+		this.width = width;
+		this.pruned = pruned;
+		this.hashingThreshold = hashingThreshold;
+		this.hashingBuckets = hashingBuckets;
+		this.indexEncoding = indexEncoding;
+	}
+
+	/**
+	 * Compiles the encoding plan for the regular columns of the given table. Numeric columns are placed first,
+	 * categorical columns second. Columns of other types are ignored.
+	 *
+	 * @param table the reference table, usually the training data or its header
+	 * @return the compiled plan
+	 * @throws IllegalArgumentException if the table does not contain any regular column
+	 */
+	static FeatureEncoding compile(Table table) {
+		return compile(table, Collections.emptyMap());
+	}
+
+	/**
+	 * Compiles the encoding plan for the regular columns of the given table as configured by the given options:
+	 * <ul>
+	 *     <li>{@link XGBoostWrapper#CATEGORICAL_ENCODING}: {@link XGBoostWrapper#ONE_HOT_ENCODING} (the default) or
+	 *     {@link XGBoostWrapper#INDEX_ENCODING} to encode every categorical column with more than two classes as a
+	 *     single feature (see {@link Kind#INDEX}), taking precedence over hashing,</li>
+	 *     <li>{@link XGBoostWrapper#HASHING_THRESHOLD}: categorical columns with more classes are hashed into
+	 *     {@link XGBoostWrapper#HASHING_BUCKETS} features instead of being one-hot encoded (disabled by default),</li>
+	 *     <li>{@link #PRUNED_FEATURES}: the columns to omit, see {@link #compilePruned}.</li>
+	 * </ul>
+	 * Entries other than options are ignored.
+	 *
+	 * @param table   the reference table, usually the training data or its header
+	 * @param options the options, usually the training parameters
+	 * @return the compiled plan
+	 * @throws IllegalArgumentException if the table does not contain any regular column or an option is invalid
+	 */
+	static FeatureEncoding compile(Table table, Map<String, ?> options) {
+		Object pruned = options.get(PRUNED_FEATURES);
+		Object categorical = options.get(XGBoostWrapper.CATEGORICAL_ENCODING);
+		boolean indexEncoding = false;
+		if (categorical != null && !XGBoostWrapper.ONE_HOT_ENCODING.equals(categorical.toString())) {
+			if (!XGBoostWrapper.INDEX_ENCODING.equals(categorical.toString())) {
+				throw new IllegalArgumentException("Invalid value for option '" + XGBoostWrapper.CATEGORICAL_ENCODING
+						+ "': " + categorical);
+			}
+			indexEncoding = true;
+		}
+		return compile(table, pruned == null ? Collections.emptyList() : splitLabels(pruned.toString()),
+				getIntOption(options, XGBoostWrapper.HASHING_THRESHOLD, 0),
+				getIntOption(options, XGBoostWrapper.HASHING_BUCKETS, DEFAULT_HASHING_BUCKETS), indexEncoding);
+	}
+
+	/**
+	 * Compiles the encoding plan for the regular columns of the given table, omitting columns that cannot contribute to
+	 * any split: columns whose encoded values are all missing (e.g., nominal columns with an empty dictionary) and
+	 * constant columns without missing values. Every column is scanned at most once, the scan of a column stops as
+	 * soon as it is known to be usable. Columns are only pruned if at least one usable column remains.
+	 *
+	 * @param table   the training data
+	 * @param options the options, see {@link #compile(Table, Map)}
+	 * @return the compiled plan, see {@link #pruned()} for the omitted columns
+	 * @throws IllegalArgumentException if the table does not contain any regular column or an option is invalid
+	 */
+	static FeatureEncoding compilePruned(Table table, Map<String, ?> options) {
+		FeatureEncoding full = compile(table, options);
+		Set<String> pruned = new HashSet<>();
+		List<Column> columns = full.columns(table);
+		for (int i = 0; i < columns.size(); i++) {
+			if (!isUsable(full, i, columns.get(i))) {
+				pruned.add(full.labels[i]);
+			}
+		}
+		if (pruned.isEmpty() || pruned.size() == columns.size()) {
+			return full;
+		}
+		return compile(table, pruned, full.hashingThreshold, full.hashingBuckets, full.indexEncoding);
+	}
+
+	private static FeatureEncoding compile(Table table, Collection<String> pruned, int hashingThreshold,
+										   int hashingBuckets, boolean indexEncoding) {
+		if (hashingThreshold < 0) {
+			throw new IllegalArgumentException("Hashing threshold must not be negative");
+		}
+		if (hashingBuckets < 1) {
+			throw new IllegalArgumentException("Number of hashing buckets must be positive");
+		}
+		Table potentialFeatures = table.columns(table.select()
+				.withoutMetaData(ColumnRole.class)
+				.labels());
+
+		if (potentialFeatures.width() == 0) {
+			throw new IllegalArgumentException("Data table does not contain any feature");
+		}
+
+		List<String> features = new ArrayList<>(potentialFeatures.width());
+		List<String> categoricalFeatures = new ArrayList<>();
+		for (String label : potentialFeatures.labels()) {
+			if (pruned.contains(label)) {
+				continue;
+			}
+			switch (potentialFeatures.column(label).type().category()) {
+				case NUMERIC:
+					features.add(label);
+					break;
+				case CATEGORICAL:
+					categoricalFeatures.add(label);
+					break;
+				default:
+					// Ignore unsupported columns.
+					break;
+			}
+		}
+		features.addAll(categoricalFeatures);
+
+		int n = features.size();
+		Kind[] kinds = new Kind[n];
+		int[] offsets = new int[n];
+		int[] widths = new int[n];
+		Dictionary[] dictionaries = new Dictionary[n];
+		int[] negatives = new int[n];
+		int[] positives = new int[n];
+		int[][] indexMaps = new int[n][];
+
+		long offset = 0;
+		for (int i = 0; i < n; i++) {
+			Column column = table.column(features.get(i));
+			offsets[i] = (int) offset;
+			if (column.type().category() == Column.Category.NUMERIC) {
+				kinds[i] = Kind.NUMERIC;
+				widths[i] = 1;
+			} else {
+				Dictionary dictionary = column.getDictionary();
+				dictionaries[i] = dictionary;
+				if (Columns.isAtMostBicategorical(column)) {
+					kinds[i] = Kind.BICATEGORICAL;
+					widths[i] = 1;
+					negatives[i] = XGBoostWrapper.getNegativeIndex(dictionary);
+					positives[i] = XGBoostWrapper.getPositiveIndex(dictionary);
+				} else if (indexEncoding) {
+					kinds[i] = Kind.INDEX;
+					widths[i] = 1;
+					indexMaps[i] = XGBoostWrapper.createIndexMap(dictionary);
+				} else if (hashingThreshold > 0 && dictionary.size() > hashingThreshold) {
+					kinds[i] = Kind.HASHED;
+					widths[i] = hashingBuckets;
+					indexMaps[i] = createHashMap(dictionary, hashingBuckets);
+				} else {
+					kinds[i] = Kind.ONE_HOT;
+					widths[i] = dictionary.size();
+					indexMaps[i] = XGBoostWrapper.createIndexMap(dictionary);
+				}
+			}
+			offset += widths[i];
+		}
+
+		String[] prunedLabels = potentialFeatures.labels().stream().filter(pruned::contains).toArray(String[]::new);
+		return new FeatureEncoding(features.toArray(new String[0]), kinds, offsets, widths, dictionaries, negatives,
+				positives, indexMaps, offset, prunedLabels, hashingThreshold, hashingBuckets, indexEncoding);
+	}
+
+	/**
+	 * Maps the categories of the given dictionary to their hash buckets. The bucket only depends on the category
+	 * value, i.e., the same category is mapped to the same bucket for any dictionary and JVM.
+	 */
+	private static int[] createHashMap(Dictionary dictionary, int buckets) {
+		int[] indexMap = new int[dictionary.maximalIndex() + 1];
+		indexMap[0] = -1;
+		for (int i = 1; i <= dictionary.maximalIndex(); i++) {
+			String value = dictionary.get(i);
+			indexMap[i] = value == null ? -1 : bucket(value, buckets);
+		}
+		return indexMap;
+	}
+
+	/**
+	 * Returns the hash bucket of the given category. Mixes the bits of {@link String#hashCode()}, which is stable by
+	 * specification, to spread similar values (e.g., consecutive codes) across buckets.
+	 */
+	static int bucket(String value, int buckets) {
+		int hash = value.hashCode();
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		hash *= 0xc2b2ae35;
+		hash ^= hash >>> 16;
+		return Math.floorMod(hash, buckets);
+	}
+
+	/**
+	 * Checks whether the encoded values of the given column allow for at least one split, i.e., whether they contain
+	 * two distinct values or a value and a missing value. As for the conversions, zeros are treated as missing.
+	 */
+	private static boolean isUsable(FeatureEncoding encoding, int index, Column column) {
+		int height = column.size();
+		if (encoding.kinds[index] == Kind.ONE_HOT || encoding.kinds[index] == Kind.HASHED) {
+			// Every position is a separate feature: a single position without missing values is constant.
+			int[] indexMap = encoding.indexMaps[index];
+			CategoricalReader reader = Readers.categoricalReader(column);
+			int seen = -1;
+			boolean missing = false;
+			for (int row = 0; row < height; row++) {
+				int category = reader.read();
+				if (category <= 0 || indexMap[category] < 0) {
+					missing = true;
+				} else if (seen < 0) {
+					seen = indexMap[category];
+				} else if (indexMap[category] != seen) {
+					return true;
+				}
+				if (missing && seen >= 0) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		boolean numeric = encoding.kinds[index] == Kind.NUMERIC;
+		int[] indexMap = encoding.kinds[index] == Kind.INDEX ? encoding.indexMaps[index] : null;
+		NumericReader numericReader = numeric ? Readers.numericReader(column) : null;
+		CategoricalReader categoricalReader = numeric ? null : Readers.categoricalReader(column);
+		float seen = Float.NaN;
+		boolean missing = false;
+		for (int row = 0; row < height; row++) {
+			float value;
+			if (numeric) {
+				value = (float) numericReader.read();
+			} else {
+				int category = categoricalReader.read();
+				if (indexMap != null) {
+					value = category > 0 && indexMap[category] >= 0 ? indexMap[category] + 1 : Float.NaN;
+				} else {
+					value = category == encoding.positives[index] ? 1 : Float.NaN;
+				}
+			}
+			if (Float.isNaN(value) || value == 0) {
+				missing = true;
+			} else if (Float.isNaN(seen)) {
+				seen = value;
+			} else if (value != seen) {
+				return true;
+			}
+			if (missing && !Float.isNaN(seen)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns a plan that applies to the given table. If the dictionaries of the given table match the dictionaries
+	 * of this plan, this plan is returned as is. Otherwise, a plan with codes remapped to the dictionaries of the
+	 * given table is returned: categories unknown to this plan are encoded as missing values.
+	 *
+	 * @param table the table to convert
+	 * @return the plan for the given table
+	 * @throws IllegalArgumentException if the table does not contain all columns of this plan
+	 */
+	FeatureEncoding adapt(Table table) {
+		boolean match = true;
+		for (int i = 0; i < labels.length && match; i++) {
+			if (dictionaries[i] != null) {
+				match = matches(dictionaries[i], requireColumn(table, i).getDictionary());
+			}
+		}
+		if (match) {
+			return this;
+		}
+
+		Dictionary[] adaptedDictionaries = new Dictionary[labels.length];
+		int[] adaptedNegatives = new int[labels.length];
+		int[] adaptedPositives = new int[labels.length];
+		int[][] adaptedIndexMaps = new int[labels.length][];
+		for (int i = 0; i < labels.length; i++) {
+			if (dictionaries[i] == null) {
+				continue;
+			}
+			Dictionary dictionary = requireColumn(table, i).getDictionary();
+			adaptedDictionaries[i] = dictionary;
+			int[] remapping = createRemapping(dictionary, dictionaries[i]);
+			switch (kinds[i]) {
+				case BICATEGORICAL:
+					adaptedNegatives[i] = indexOf(remapping, negatives[i]);
+					adaptedPositives[i] = indexOf(remapping, positives[i]);
+					break;
+				case HASHED:
+					// Categories unknown to this plan are hashed as well.
+					adaptedIndexMaps[i] = createHashMap(dictionary, hashingBuckets);
+					break;
+				case ONE_HOT:
+				case INDEX:
+					int[] indexMap = new int[remapping.length];
+					for (int j = 0; j < remapping.length; j++) {
+						indexMap[j] = remapping[j] > 0 ? indexMaps[i][remapping[j]] : -1;
+					}
+					adaptedIndexMaps[i] = indexMap;
+					break;
+				default:
+					break;
+			}
+		}
+
+		return new FeatureEncoding(labels, kinds, offsets, widths, adaptedDictionaries, adaptedNegatives,
+				adaptedPositives, adaptedIndexMaps, width, pruned, hashingThreshold, hashingBuckets, indexEncoding);
+	}
+
+	/**
+	 * Looks up the columns of this plan in the given table.
+	 *
+	 * @param table the table to convert
+	 * @return the columns in encoding order
+	 * @throws IllegalArgumentException if the table does not contain all columns of this plan
+	 */
+	List<Column> columns(Table table) {
+		List<Column> columns = new ArrayList<>(labels.length);
+		for (int i = 0; i < labels.length; i++) {
+			columns.add(requireColumn(table, i));
+		}
+		return columns;
+	}
+
+	/**
+	 * @return the number of source columns
+	 */
+	int size() {
+		return labels.length;
+	}
+
+	/**
+	 * @return the number of encoded features (the offsets are only valid if the width does not exceed {@link
+	 * Integer#MAX_VALUE})
+	 */
+	long width() {
+		return width;
+	}
+
+	/**
+	 * @return the labels of the regular columns omitted by this plan in table order
+	 */
+	List<String> pruned() {
+		return Collections.unmodifiableList(Arrays.asList(pruned));
+	}
+
+	/**
+	 * Returns the options that reproduce this plan when compiled from the training header, see {@link #compile(Table,
+	 * Map)}.
+	 *
+	 * @return the options, possibly empty
+	 */
+	Map<String, String> options() {
+		Map<String, String> options = new HashMap<>();
+		if (pruned.length > 0) {
+			options.put(PRUNED_FEATURES, joinLabels(pruned()));
+		}
+		if (indexEncoding) {
+			options.put(XGBoostWrapper.CATEGORICAL_ENCODING, XGBoostWrapper.INDEX_ENCODING);
+		}
+		if (hashingThreshold > 0) {
+			options.put(XGBoostWrapper.HASHING_THRESHOLD, Integer.toString(hashingThreshold));
+			options.put(XGBoostWrapper.HASHING_BUCKETS, Integer.toString(hashingBuckets));
+		}
+		return options;
+	}
+
+	/**
+	 * @return whether the given parameter key is an encoding option rather than an XGBoost parameter
+	 */
+	static boolean isOption(String key) {
+		return key.startsWith(OPTION_PREFIX);
+	}
+
+	private static int getIntOption(Map<String, ?> options, String key, int defaultValue) {
+		Object value = options.get(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.toString().trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid value for option '" + key + "': " + value, e);
+		}
+	}
+
+	/**
+	 * Serializes the given labels into a single string, e.g., to persist the pruned columns along with a model.
+	 */
+	static String joinLabels(List<String> labels) {
+		StringBuilder builder = new StringBuilder();
+		for (String label : labels) {
+			// Length-prefixed to allow for arbitrary characters in labels.
+			builder.append(label.length()).append(':').append(label);
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Parses labels serialized by {@link #joinLabels(List)}.
+	 *
+	 * @throws IllegalArgumentException if the string is malformed
+	 */
+	static List<String> splitLabels(String joined) {
+		List<String> labels = new ArrayList<>();
+		int position = 0;
+		while (position < joined.length()) {
+			int separator = joined.indexOf(':', position);
+			if (separator < 0) {
+				throw new IllegalArgumentException("Malformed label list");
+			}
+			int end;
+			try {
+				end = separator + 1 + Integer.parseInt(joined.substring(position, separator));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Malformed label list", e);
+			}
+			if (end > joined.length() || end <= separator) {
+				throw new IllegalArgumentException("Malformed label list");
+			}
+			labels.add(joined.substring(separator + 1, end));
+			position = end;
+		}
+		return labels;
+	}
+
+	String label(int column) {
+		return labels[column];
+	}
+
+	Kind kind(int column) {
+		return kinds[column];
+	}
+
+	/**
+	 * @return the position of the first encoded feature of the given column
+	 */
+	int offset(int column) {
+		return offsets[column];
+	}
+
+	/**
+	 * @return the number of encoded features of the given column
+	 */
+	int width(int column) {
+		return widths[column];
+	}
+
+	/**
+	 * @return the category index encoded as {@code 0} (bicategorical columns only)
+	 */
+	int negative(int column) {
+		return negatives[column];
+	}
+
+	/**
+	 * @return the category index encoded as {@code 1} (bicategorical columns only)
+	 */
+	int positive(int column) {
+		return positives[column];
+	}
+
+	/**
+	 * @return the map from category index to one-hot position, negative for unknown categories (one-hot columns
+	 * only)
+	 */
+	int[] indexMap(int column) {
+		return indexMaps[column];
+	}
+
+	private Column requireColumn(Table table, int column) {
+		if (!table.contains(labels[column])) {
+			throw new IllegalArgumentException("Data table does not contain feature '" + labels[column] + "'");
+		}
+		return table.column(labels[column]);
+	}
+
+	private static boolean matches(Dictionary expected, Dictionary actual) {
+		if (expected == actual) {
+			return true;
+		}
+		if (expected.maximalIndex() != actual.maximalIndex() || expected.size() != actual.size()
+				|| expected.isBoolean() != actual.isBoolean()) {
+			return false;
+		}
+		if (expected.isBoolean() && (expected.getPositiveIndex() != actual.getPositiveIndex()
+				|| expected.getNegativeIndex() != actual.getNegativeIndex())) {
+			return false;
+		}
+		for (int i = 1; i <= expected.maximalIndex(); i++) {
+			String value = expected.get(i);
+			if (value == null ? actual.get(i) != null : !value.equals(actual.get(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Maps the category indices of the source dictionary to the indices of the same categories in the target
+	 * dictionary ({@code 0} for unknown categories).
+	 */
+	private static int[] createRemapping(Dictionary source, Dictionary target) {
+		Map<String, Integer> inverse = target.createInverse();
+		int[] remapping = new int[source.maximalIndex() + 1];
+		for (int i = 1; i <= source.maximalIndex(); i++) {
+			String value = source.get(i);
+			if (value != null) {
+				remapping[i] = inverse.getOrDefault(value, 0);
+			}
+		}
+		return remapping;
+	}
+
+	private static int indexOf(int[] remapping, int index) {
+		if (index <= 0) {
+			return index;
+		}
+		for (int i = 1; i < remapping.length; i++) {
+			if (remapping[i] == index) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+}
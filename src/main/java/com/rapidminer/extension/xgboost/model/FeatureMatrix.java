@@ -0,0 +1,195 @@
+/*
+ * RapidMiner GmbH
+ *
+ * Copyright (C) 2021-2021 by RapidMiner GmbH and the contributors
+ *
+ * Complete list of developers available at our web site:
+ *
+ *      www.rapidminer.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package com.rapidminer.extension.xgboost.model;
+
+import ml.dmlc.xgboost4j.java.DMatrix;
+import ml.dmlc.xgboost4j.java.XGBoostError;
+import ml.dmlc.xgboost4j.java.util.BigDenseMatrix;
+
+
+/**
+ * Encoded feature data in one of the memory layouts accepted by XGBoost's {@link DMatrix} constructors.
+ * <p>
+ * Independent of the layout, {@link Float#NaN} and {@code 0} both mark missing entries: the dense layout is passed to
+ * XGBoost with {@code 0} as missing value indicator and the sparse layout simply omits such entries.
+ *
+ * @author Michael Knopf
+ */
+abstract class FeatureMatrix {
+
+	/** The supported memory layouts. */
+	enum Layout {
+		/** Selects the layout based on the estimated density of the encoded data. */
+		AUTO,
+		/** Row-major {@code float} array with one slot per encoded feature. */
+		DENSE,
+		/** Compressed sparse row (CSR) format storing only the non-missing entries. */
+		SPARSE,
+		/** Row-major matrix in native memory that is not subject to the Java array size limit. */
+		OFF_HEAP
+	}
+
+	private final int height;
+	private final int width;
+
+	private FeatureMatrix(int height, int width) {
+		this.height = height;
+		this.width = width;
+	}
+
+	/**
+	 * @return the number of rows
+	 */
+	int height() {
+		return height;
+	}
+
+	/**
+	 * @return the number of encoded features
+	 */
+	int width() {
+		return width;
+	}
+
+	/**
+	 * @return the layout of this matrix (never {@link Layout#AUTO})
+	 */
+	abstract Layout layout();
+
+	/**
+	 * Copies the encoded data to a new native matrix.
+	 *
+	 * @return the native matrix
+	 * @throws XGBoostError if the creation of the native matrix fails
+	 */
+	abstract CheckedDMatrix toDMatrix() throws XGBoostError;
+
+	/**
+	 * Releases memory not managed by the JVM. The matrix must not be used afterwards.
+	 */
+	void dispose() {
+		// Nothing to release by default.
+	}
+
+	/**
+	 * Row-major dense matrix.
+	 */
+	static final class Dense extends FeatureMatrix {
+
+		private final float[] values;
+
+		Dense(float[] values, int height, int width) {
+			super(height, width);
+			this.values = values;
+		}
+
+		float[] values() {
+			return values;
+		}
+
+		@Override
+		Layout layout() {
+			return Layout.DENSE;
+		}
+
+		@Override
+		CheckedDMatrix toDMatrix() throws XGBoostError {
+			return new CheckedDMatrix(values, height(), width());
+		}
+
+	}
+
+	/**
+	 * Matrix in compressed sparse row (CSR) format.
+	 */
+	static final class Sparse extends FeatureMatrix {
+
+		private final long[] rowHeaders;
+		private final int[] columnIndices;
+		private final float[] values;
+
+		Sparse(long[] rowHeaders, int[] columnIndices, float[] values, int width) {
+			super(rowHeaders.length - 1, width);
+			this.rowHeaders = rowHeaders;
+			this.columnIndices = columnIndices;
+			this.values = values;
+		}
+
+		long[] rowHeaders() {
+			return rowHeaders;
+		}
+
+		int[] columnIndices() {
+			return columnIndices;
+		}
+
+		float[] values() {
+			return values;
+		}
+
+		@Override
+		Layout layout() {
+			return Layout.SPARSE;
+		}
+
+		@Override
+		CheckedDMatrix toDMatrix() throws XGBoostError {
+			return new CheckedDMatrix(rowHeaders, columnIndices, values, width());
+		}
+
+	}
+
+	/**
+	 * Row-major dense matrix in native memory.
+	 */
+	static final class OffHeap extends FeatureMatrix {
+
+		private final BigDenseMatrix matrix;
+
+		OffHeap(BigDenseMatrix matrix) {
+			super(matrix.nrow, matrix.ncol);
+			this.matrix = matrix;
+		}
+
+		BigDenseMatrix matrix() {
+			return matrix;
+		}
+
+		@Override
+		Layout layout() {
+			return Layout.OFF_HEAP;
+		}
+
+		@Override
+		CheckedDMatrix toDMatrix() throws XGBoostError {
+			return new CheckedDMatrix(matrix);
+		}
+
+		@Override
+		void dispose() {
+			matrix.dispose();
+		}
+
+	}
+
+}
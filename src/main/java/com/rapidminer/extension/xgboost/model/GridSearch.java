@@ -0,0 +1,150 @@
+/*
+ * RapidMiner GmbH
+ *
+ * Copyright (C) 2021-2021 by RapidMiner GmbH and the contributors
+ *
+ * Complete list of developers available at our web site:
+ *
+ *      www.rapidminer.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package com.rapidminer.extension.xgboost.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import com.rapidminer.belt.table.Table;
+
+
+/**
+ * Helpers for hyper-parameter searches using {@link XGBoostWrapper#trainGrid}: the expansion of parameter grids into
+ * the list of candidates and the random sampling of candidates. Also holds the result of a search.
+ *
+ * @author Michael Knopf
+ */
+public final class GridSearch {
+
+	private GridSearch() {
+		throw new AssertionError("Static utility class must not be initialized");
+	}
+
+	/**
+	 * Expands the given grid into all combinations of parameter values. The first parameter varies slowest.
+	 *
+	 * @param grid the candidate values per parameter
+	 * @return the list of candidates
+	 * @throws IllegalArgumentException if a parameter has no candidate values
+	 */
+	public static List<Map<String, String>> expand(Map<String, List<String>> grid) {
+		List<Map<String, String>> candidates = new ArrayList<>();
+		candidates.add(Collections.emptyMap());
+		for (Map.Entry<String, List<String>> entry : grid.entrySet()) {
+			if (entry.getValue().isEmpty()) {
+				throw new IllegalArgumentException("No values for parameter '" + entry.getKey() + "'");
+			}
+			List<Map<String, String>> expanded = new ArrayList<>(candidates.size() * entry.getValue().size());
+			for (Map<String, String> candidate : candidates) {
+				for (String value : entry.getValue()) {
+					Map<String, String> next = new LinkedHashMap<>(candidate);
+					next.put(entry.getKey(), value);
+					expanded.add(next);
+				}
+			}
+			candidates = expanded;
+		}
+		return candidates;
+	}
+
+	/**
+	 * Samples the given number of distinct candidates from the given grid uniformly at random, i.e., a random search.
+	 * Returns all candidates in random order if the grid is smaller than the requested number.
+	 *
+	 * @param grid  the candidate values per parameter
+	 * @param count the number of candidates
+	 * @param seed  the seed of the random number generator
+	 * @return the list of candidates
+	 */
+	public static List<Map<String, String>> sample(Map<String, List<String>> grid, int count, long seed) {
+		Random random = new Random(seed);
+		long size = 1;
+		for (Map.Entry<String, List<String>> entry : grid.entrySet()) {
+			if (entry.getValue().isEmpty()) {
+				throw new IllegalArgumentException("No values for parameter '" + entry.getKey() + "'");
+			}
+			size = Math.min(size * entry.getValue().size(), Integer.MAX_VALUE);
+		}
+
+		// Small grids are expanded, large ones are sampled directly to not enumerate all combinations.
+		if (size <= 2L * count) {
+			List<Map<String, String>> candidates = expand(grid);
+			Collections.shuffle(candidates, random);
+			return candidates.size() > count ? new ArrayList<>(candidates.subList(0, count)) : candidates;
+		}
+		Set<Map<String, String>> candidates = new LinkedHashSet<>();
+		while (candidates.size() < count) {
+			Map<String, String> candidate = new LinkedHashMap<>();
+			grid.forEach((key, values) -> candidate.put(key, values.get(random.nextInt(values.size()))));
+			candidates.add(candidate);
+		}
+		return new ArrayList<>(candidates);
+	}
+
+	/**
+	 * The best model of a search and the performance of all candidates.
+	 */
+	public static final class Result {
+
+		private final XGBoostModel bestModel;
+		private final Map<String, String> bestParameters;
+		private final Table performance;
+
+		Result(XGBoostModel bestModel, Map<String, String> bestParameters, Table performance) {
+			this.bestModel = bestModel;
+			this.bestParameters = new HashMap<>(bestParameters);
+			this.performance = performance;
+		}
+
+		/**
+		 * @return the model of the candidate with the best score
+		 */
+		public XGBoostModel getBestModel() {
+			return bestModel;
+		}
+
+		/**
+		 * @return the parameters of the candidate with the best score as specified by the caller
+		 */
+		public Map<String, String> getBestParameters() {
+			return Collections.unmodifiableMap(bestParameters);
+		}
+
+		/**
+		 * @return one row per candidate in the given order: the candidate parameters, the number of completed boosting
+		 * iterations, the score on the validation data and the wall-clock time of the boosting in seconds
+		 */
+		public Table getPerformance() {
+			return performance;
+		}
+
+	}
+
+}
@@ -0,0 +1,253 @@
+/*
+ * RapidMiner GmbH
+ *
+ * Copyright (C) 2021-2021 by RapidMiner GmbH and the contributors
+ *
+ * Complete list of developers available at our web site:
+ *
+ *      www.rapidminer.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package com.rapidminer.extension.xgboost.model;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import com.rapidminer.belt.buffer.Buffers;
+import com.rapidminer.belt.buffer.NominalBuffer;
+import com.rapidminer.belt.buffer.NumericBuffer;
+import com.rapidminer.belt.column.Column;
+import com.rapidminer.belt.column.Columns;
+import com.rapidminer.belt.column.Dictionary;
+
+
+/**
+ * Collects the raw XGBoost predictions block by block in preallocated buffers and converts them to the prediction and
+ * score columns once all blocks have been written. The predicted classes are collected as category indices of the
+ * label dictionary and only converted to a nominal column at the end.
+ * <p>
+ * The public Belt API neither creates numeric columns from arrays nor nominal columns from category indices. Thus,
+ * every score is copied into its buffer individually and the class column is written value by value before its
+ * dictionary is aligned with the label. Likewise, the native booster returns one array per row.
+ *
+ * @author Michael Knopf
+ */
+abstract class PredictionWriter {
+
+	private final int height;
+
+	private PredictionWriter(int height) {
+		this.height = height;
+	}
+
+	/**
+	 * Creates a new writer for the given label.
+	 *
+	 * @param label  the label column of the training data
+	 * @param height the total number of predictions
+	 * @return the writer
+	 */
+	static PredictionWriter create(Column label, int height) {
+		if (label.type().category() == Column.Category.CATEGORICAL) {
+			return Columns.isAtMostBicategorical(label)
+					? new Bicategorical(label, height)
+					: new Categorical(label, height);
+		} else {
+			return new Regression(height);
+		}
+	}
+
+	/**
+	 * @return the total number of predictions
+	 */
+	int height() {
+		return height;
+	}
+
+	/**
+	 * Writes the given block of raw predictions starting at the given row.
+	 */
+	final void write(float[][] predictions, int offset) {
+		for (int y = 0; y < predictions.length; y++) {
+			writeRow(predictions[y], 0, predictions[y].length, offset + y);
+		}
+	}
+
+	/**
+	 * Writes the given block of raw predictions in row-major order with the given number of outputs per row starting
+	 * at the given row.
+	 */
+	final void write(float[] predictions, int width, int offset) {
+		int rows = predictions.length / width;
+		for (int y = 0; y < rows; y++) {
+			writeRow(predictions, y * width, width, offset + y);
+		}
+	}
+
+	/**
+	 * Writes the raw prediction of a single row, i.e., the given number of outputs starting at the given position.
+	 */
+	abstract void writeRow(float[] values, int from, int width, int row);
+
+	/**
+	 * Returns the prediction column and adds the score columns (if any) to the given map.
+	 */
+	abstract Column finish(Map<String, Column> scores);
+
+	/**
+	 * Converts the given category indices to a column with the same dictionary as the given label. Belt offers no
+	 * public way to create the column from the indices directly, so the values are looked up once per category and
+	 * written per row.
+	 */
+	private static Column toClassColumn(int[] classes, Column label) {
+		Dictionary dictionary = label.getDictionary();
+		String[] values = new String[dictionary.maximalIndex() + 1];
+		for (int i = 1; i < values.length; i++) {
+			values[i] = dictionary.get(i);
+		}
+		NominalBuffer buffer = Buffers.nominalBuffer(classes.length);
+		for (int row = 0; row < classes.length; row++) {
+			buffer.set(row, values[classes[row]]);
+		}
+		return Columns.changeDictionary(buffer.toColumn(), label);
+	}
+
+	private static final class Regression extends PredictionWriter {
+
+		private final NumericBuffer prediction;
+
+		private Regression(int height) {
+			super(height);
+			this.prediction = Buffers.realBuffer(height, false);
+		}
+
+		@Override
+		void writeRow(float[] values, int from, int width, int row) {
+			prediction.set(row, values[from]);
+		}
+
+		@Override
+		Column finish(Map<String, Column> scores) {
+			return prediction.toColumn();
+		}
+
+	}
+
+	private static final class Bicategorical extends PredictionWriter {
+
+		private final Column label;
+		private final String negativeValue;
+		private final String positiveValue;
+		private final int negativeIndex;
+		private final int positiveIndex;
+		private final int[] classes;
+		private final NumericBuffer negativeScore;
+		private final NumericBuffer positiveScore;
+
+		private Bicategorical(Column label, int height) {
+			super(height);
+			this.label = label;
+			Dictionary dictionary = label.getDictionary();
+			int negative = XGBoostWrapper.getNegativeIndex(dictionary);
+			int positive = XGBoostWrapper.getPositiveIndex(dictionary);
+			this.negativeValue = dictionary.get(negative);
+			this.positiveValue = dictionary.get(positive);
+			// Missing classes are encoded as missing values (index 0).
+			this.negativeIndex = negativeValue == null ? 0 : negative;
+			this.positiveIndex = positiveValue == null ? 0 : positive;
+			this.classes = new int[height];
+			this.negativeScore = Buffers.realBuffer(height, false);
+			this.positiveScore = Buffers.realBuffer(height, false);
+		}
+
+		@Override
+		void writeRow(float[] values, int from, int width, int row) {
+			float score = values[from];
+			classes[row] = score < 0.5 ? negativeIndex : positiveIndex;
+			negativeScore.set(row, 1.0 - score);
+			positiveScore.set(row, score);
+		}
+
+		@Override
+		Column finish(Map<String, Column> scores) {
+			// There is no negative value if there is only one class.
+			if (negativeValue != null) {
+				scores.put(negativeValue, negativeScore.toColumn());
+			}
+			scores.put(positiveValue, positiveScore.toColumn());
+
+			return toClassColumn(classes, label);
+		}
+
+	}
+
+	private static final class Categorical extends PredictionWriter {
+
+		private final Column label;
+		private final Dictionary dictionary;
+		private final int[] classes;
+		/** Allocated on first write, the number of classes is determined by the booster. */
+		private NumericBuffer[] scoreBuffers;
+		/** Maps score positions to category indices, gaps in the dictionary are mapped to missing values. */
+		private int[] classIndices;
+
+		private Categorical(Column label, int height) {
+			super(height);
+			this.label = label;
+			this.dictionary = label.getDictionary();
+			this.classes = new int[height];
+		}
+
+		@Override
+		void writeRow(float[] values, int from, int width, int row) {
+			if (scoreBuffers == null) {
+				int nClasses = width;
+				scoreBuffers = new NumericBuffer[nClasses];
+				Arrays.setAll(scoreBuffers, i -> Buffers.realBuffer(height(), false));
+				classIndices = new int[nClasses];
+				for (int x = 0; x < nClasses; x++) {
+					classIndices[x] = x + 1 <= dictionary.maximalIndex() && dictionary.get(x + 1) != null ? x + 1 : 0;
+				}
+			}
+
+			int nClasses = scoreBuffers.length;
+			float maxScore = Float.NEGATIVE_INFINITY;
+			int maxIndex = -1;
+			for (int x = 0; x < nClasses; x++) {
+				float score = values[from + x];
+				if (score > maxScore) {
+					maxScore = score;
+					maxIndex = x;
+				}
+				scoreBuffers[x].set(row, score);
+			}
+			classes[row] = maxIndex < 0 ? 0 : classIndices[maxIndex];
+		}
+
+		@Override
+		Column finish(Map<String, Column> scores) {
+			for (int i = 0; scoreBuffers != null && i < scoreBuffers.length; i++) {
+				String value = dictionary.get(i + 1);
+				if (value != null) {
+					scores.put(value, scoreBuffers[i].toColumn());
+				}
+			}
+
+			return toClassColumn(classes, label);
+		}
+
+	}
+
+}
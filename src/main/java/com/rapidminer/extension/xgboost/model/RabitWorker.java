@@ -0,0 +1,130 @@
+/*
+ * RapidMiner GmbH
+ *
+ * Copyright (C) 2021-2021 by RapidMiner GmbH and the contributors
+ *
+ * Complete list of developers available at our web site:
+ *
+ *      www.rapidminer.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package com.rapidminer.extension.xgboost.model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import ml.dmlc.xgboost4j.java.Booster;
+import ml.dmlc.xgboost4j.java.DMatrix;
+import ml.dmlc.xgboost4j.java.Rabit;
+import ml.dmlc.xgboost4j.java.XGBoost;
+import ml.dmlc.xgboost4j.java.XGBoostError;
+
+
+/**
+ * Entry point of the worker processes of the distributed training (see {@link DistributedTraining}). Every worker
+ * loads its own partition of the training data, joins the Rabit collective using the {@code DMLC_*} environment
+ * variables set by the tracker and trains on its partition. The first worker writes the serialized booster and the
+ * number of completed iterations.
+ * <p>
+ * This class must not depend on any RapidMiner classes: the worker processes only have the extension and XGBoost on
+ * their classpath.
+ *
+ * @author Michael Knopf
+ */
+public final class RabitWorker {
+
+	/** Prefix of the environment variables passed to the Rabit collective. */
+	static final String ENVIRONMENT_PREFIX = "DMLC_";
+
+	private RabitWorker() {
+		throw new AssertionError("Static utility class must not be initialized");
+	}
+
+	/**
+	 * @return the file storing the number of completed iterations of the given model file
+	 */
+	static Path getIterationsFile(Path model) {
+		return model.resolveSibling(model.getFileName() + ".iterations");
+	}
+
+	/**
+	 * Arguments: parameter file, boosting rounds, early stopping rounds, training matrix, model file and (optionally)
+	 * validation matrix. The parameter file is a properties file, the matrices are XGBoost binary buffers.
+	 */
+	public static void main(String[] args) throws XGBoostError, IOException {
+		if (args.length < 5 || args.length > 6) {
+			System.err.println("Usage: RabitWorker <parameters> <rounds> <early stopping rounds> <training matrix> "
+					+ "<model> [<validation matrix>]");
+			System.exit(2);
+		}
+
+		Properties properties = new Properties();
+		try (InputStream in = Files.newInputStream(Paths.get(args[0]))) {
+			properties.load(in);
+		}
+		Map<String, Object> parameters = new HashMap<>();
+		for (String key : properties.stringPropertyNames()) {
+			parameters.put(key, properties.getProperty(key));
+		}
+		int rounds = Integer.parseInt(args[1]);
+		int earlyStopping = Integer.parseInt(args[2]);
+
+		// The matrices are loaded before joining the collective: once joined, XGBoost only loads row splits of
+		// text files instead of the given binary buffers.
+		DMatrix training = new DMatrix(args[3]);
+		DMatrix validation = args.length > 5 ? new DMatrix(args[5]) : null;
+
+		Map<String, String> environment = new HashMap<>();
+		System.getenv().forEach((key, value) -> {
+			if (key.startsWith(ENVIRONMENT_PREFIX)) {
+				environment.put(key, value);
+			}
+		});
+
+		Rabit.init(environment);
+		try {
+			Map<String, DMatrix> watches = validation == null
+					? Collections.emptyMap()
+					: Collections.singletonMap("validation", validation);
+			Booster booster = XGBoost.train(training, parameters, rounds, watches, null, null, null, earlyStopping);
+			try {
+				if (Rabit.getRank() == 0) {
+					Path model = Paths.get(args[4]);
+					Files.write(model, booster.toByteArray());
+					// The booster's version counts two checkpoints per completed iteration.
+					Files.write(getIterationsFile(model),
+							Integer.toString(booster.getVersion() / 2).getBytes(StandardCharsets.UTF_8));
+				}
+			} finally {
+				booster.dispose();
+			}
+		} finally {
+			Rabit.shutdown();
+			training.dispose();
+			if (validation != null) {
+				validation.dispose();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,103 @@
+/*
+ * RapidMiner GmbH
+ *
+ * Copyright (C) 2021-2021 by RapidMiner GmbH and the contributors
+ *
+ * Complete list of developers available at our web site:
+ *
+ *      www.rapidminer.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package com.rapidminer.extension.xgboost.model;
+
+/**
+ * JVM-wide scheduler that splits the available parallelism across concurrent training jobs. Every job registers via
+ * {@link #acquire(int)} and is granted an equal share of its context's parallelism: the parallelism divided by the
+ * number of active jobs, but at least one thread. The share changes as jobs start or finish, running jobs pick up the
+ * current share of their grant in between boosting rounds. Thus, concurrent jobs, e.g., in parallel loops, neither
+ * oversubscribe the cores nor leave them idle once other jobs have finished.
+ *
+ * @author Michael Knopf
+ */
+final class ThreadBudget {
+
+	private static final ThreadBudget INSTANCE = new ThreadBudget();
+
+	/** Number of active jobs, guarded by this. */
+	private int jobs;
+
+	/**
+	 * @return the JVM-wide scheduler
+	 */
+	static ThreadBudget getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Registers a new job. The returned grant must be closed once the job has finished.
+	 *
+	 * @param parallelism the parallelism of the job's context
+	 * @return the grant
+	 */
+	synchronized Grant acquire(int parallelism) {
+		jobs++;
+		return new Grant(Math.max(1, parallelism));
+	}
+
+	/**
+	 * @return the number of active jobs
+	 */
+	synchronized int getJobs() {
+		return jobs;
+	}
+
+	private synchronized int share(int parallelism) {
+		return Math.max(1, parallelism / Math.max(1, jobs));
+	}
+
+	private synchronized void release() {
+		jobs--;
+	}
+
+	/**
+	 * Registration of an active job.
+	 */
+	final class Grant implements AutoCloseable {
+
+		private final int parallelism;
+		private boolean closed;
+
+		private Grant(int parallelism) {
+			this.parallelism = parallelism;
+		}
+
+		/**
+		 * @return the current share of threads of this job
+		 */
+		int threads() {
+			return share(parallelism);
+		}
+
+		@Override
+		public void close() {
+			if (!closed) {
+				closed = true;
+				release();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,140 @@
+/*
+ * RapidMiner GmbH
+ *
+ * Copyright (C) 2021-2021 by RapidMiner GmbH and the contributors
+ *
+ * Complete list of developers available at our web site:
+ *
+ *      www.rapidminer.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package com.rapidminer.extension.xgboost.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * Evaluation metrics and wall-clock time of the boosting rounds run by a single training. Rounds are numbered as by
+ * XGBoost, i.e., rounds restored from a checkpoint are not part of the log but are accounted for in the numbering.
+ * Metrics are only available if the training was given validation data.
+ *
+ * @author Michael Knopf
+ */
+public final class TrainingLog {
+
+	private final int firstRound;
+	private final List<String> metrics = new ArrayList<>();
+	private final List<float[]> values = new ArrayList<>();
+	private final List<Long> durations = new ArrayList<>();
+
+	TrainingLog(int firstRound) {
+		this.firstRound = firstRound;
+	}
+
+	/**
+	 * Records the next round.
+	 *
+	 * @param nanos      the wall-clock time of the round in nanoseconds
+	 * @param evaluation the evaluation string returned by XGBoost or {@code null} if there is no validation data,
+	 *                   e.g., {@code [3]\tvalidation-rmse:0.41\tvalidation-mae:0.32}
+	 */
+	void record(long nanos, String evaluation) {
+		// The first token is the round number, the remaining ones are name:value pairs.
+		String[] tokens = evaluation == null ? new String[0] : evaluation.trim().split("\t");
+		if (values.isEmpty()) {
+			for (int i = 1; i < tokens.length; i++) {
+				metrics.add(tokens[i].substring(0, tokens[i].lastIndexOf(':')));
+			}
+		}
+		float[] round = new float[metrics.size()];
+		for (int i = 0; i < round.length && i + 1 < tokens.length; i++) {
+			round[i] = parseMetric(tokens[i + 1].substring(tokens[i + 1].lastIndexOf(':') + 1));
+		}
+		values.add(round);
+		durations.add(nanos);
+	}
+
+	/**
+	 * Parses a metric value printed by XGBoost, which uses C-style names for non-finite values, e.g., {@code nan} or
+	 * {@code -inf}.
+	 */
+	private static float parseMetric(String value) {
+		switch (value.toLowerCase(Locale.ROOT)) {
+			case "nan":
+			case "-nan":
+				return Float.NaN;
+			case "inf":
+			case "+inf":
+				return Float.POSITIVE_INFINITY;
+			case "-inf":
+				return Float.NEGATIVE_INFINITY;
+			default:
+				return Float.parseFloat(value);
+		}
+	}
+
+	/**
+	 * @return the number of logged rounds
+	 */
+	public int size() {
+		return durations.size();
+	}
+
+	/**
+	 * @return the number of the first logged round
+	 */
+	public int getFirstRound() {
+		return firstRound;
+	}
+
+	/**
+	 * @return the names of the evaluation metrics, e.g., {@code validation-rmse}
+	 */
+	public List<String> getMetrics() {
+		return Collections.unmodifiableList(metrics);
+	}
+
+	/**
+	 * @param index the index of the round in this log (not the round number)
+	 * @param metric the index of the metric
+	 * @return the value of the metric after the given round
+	 */
+	public float getMetric(int index, int metric) {
+		return values.get(index)[metric];
+	}
+
+	/**
+	 * @param index the index of the round in this log (not the round number)
+	 * @return the wall-clock time of the given round in nanoseconds
+	 */
+	public long getDuration(int index) {
+		return durations.get(index);
+	}
+
+	/**
+	 * @return the total wall-clock time of all logged rounds in nanoseconds
+	 */
+	public long getTotalDuration() {
+		long total = 0;
+		for (long duration : durations) {
+			total += duration;
+		}
+		return total;
+	}
+
+}
@@ -0,0 +1,278 @@
+/*
+ * RapidMiner GmbH
+ *
+ * Copyright (C) 2021-2021 by RapidMiner GmbH and the contributors
+ *
+ * Complete list of developers available at our web site:
+ *
+ *      www.rapidminer.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package com.rapidminer.extension.xgboost.model;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+
+/**
+ * Pure-Java scorer for tree ensembles trained by XGBoost. The trees are compiled from the JSON model dump into flat
+ * primitive arrays, scoring does neither require native calls nor any synchronization.
+ * <p>
+ * The scorer mirrors XGBoost's CPU predictor: leaf values are accumulated in single precision in tree order starting
+ * with the base margin. Thus, raw margins are bit-exact. The objective's transformation uses {@link Math#exp} instead
+ * of the C library's {@code expf} and might differ from native predictions in the last bit.
+ * <p>
+ * As in the native predictor, the input is expected to be encoded as described in {@link FeatureMatrix}: both {@code
+ * 0} and {@link Float#NaN} mark missing values.
+ *
+ * @author Michael Knopf
+ */
+final class TreeEnsemble {
+
+	/** The supported transformations of raw margins. */
+	private enum Transformation {
+		IDENTITY, SIGMOID, SOFTMAX, EXP, HINGE
+	}
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	/** Index of the root node of every tree. */
+	private final int[] roots;
+	/** Output group of every tree. */
+	private final int[] groups;
+	/** Split feature of every node, negative for leaves. */
+	private final int[] features;
+	/** Split condition of every inner node, leaf value of every leaf. */
+	private final float[] values;
+	private final int[] left;
+	private final int[] right;
+	private final int[] missing;
+	private final int numGroups;
+	private final float baseMargin;
+	private final Transformation transformation;
+
+	private TreeEnsemble(int[] roots, int[] groups, int[] features, float[] values, int[] left, int[] right,
+						 int[] missing, int numGroups, float baseMargin, Transformation transformation) {
+		this.roots = roots;
+		this.groups = groups;
+		this.features = features;
+		this.values = values;
+		this.left = left;
+		this.right = right;
+		this.missing = missing;
+		this.numGroups = numGroups;
+		this.baseMargin = baseMargin;
+		this.transformation = transformation;
+	}
+
+	/**
+	 * Compiles the given JSON model dump (one JSON object per tree, without feature map).
+	 *
+	 * @param dump       the model dump
+	 * @param parameters the training parameters of the model
+	 * @return the compiled ensemble
+	 * @throws IOException              if the dump cannot be parsed
+	 * @throws IllegalArgumentException if the booster or objective is not supported
+	 */
+	static TreeEnsemble compile(String[] dump, Map<String, ?> parameters) throws IOException {
+		String booster = String.valueOf(parameters.getOrDefault("booster", "gbtree"));
+		if (!"gbtree".equals(booster)) {
+			throw new IllegalArgumentException("Unsupported booster: " + booster);
+		}
+
+		String objective = String.valueOf(parameters.get("objective"));
+		float baseScore = Float.parseFloat(String.valueOf(parameters.getOrDefault("base_score", "0.5")));
+		int numGroups = 1;
+		Transformation transformation;
+		float baseMargin;
+		switch (objective) {
+			case "reg:squarederror":
+			case "reg:linear":
+			case "reg:squaredlogerror":
+			case "reg:pseudohubererror":
+			case "binary:logitraw":
+				transformation = Transformation.IDENTITY;
+				baseMargin = baseScore;
+				break;
+			case "binary:logistic":
+			case "reg:logistic":
+				transformation = Transformation.SIGMOID;
+				baseMargin = -(float) Math.log(1.0f / baseScore - 1.0f);
+				break;
+			case "binary:hinge":
+				transformation = Transformation.HINGE;
+				baseMargin = baseScore;
+				break;
+			case "count:poisson":
+			case "reg:gamma":
+			case "reg:tweedie":
+				transformation = Transformation.EXP;
+				baseMargin = (float) Math.log(baseScore);
+				break;
+			case "multi:softprob":
+				transformation = Transformation.SOFTMAX;
+				baseMargin = baseScore;
+				numGroups = Integer.parseInt(String.valueOf(parameters.get("num_class")));
+				break;
+			default:
+				throw new IllegalArgumentException("Unsupported objective: " + objective);
+		}
+		int parallelTrees = Integer.parseInt(String.valueOf(parameters.getOrDefault("num_parallel_tree", "1")));
+
+		JsonNode[] trees = new JsonNode[dump.length];
+		int[] roots = new int[dump.length];
+		int[] groups = new int[dump.length];
+		int nodes = 0;
+		for (int i = 0; i < dump.length; i++) {
+			trees[i] = MAPPER.readTree(dump[i]);
+			roots[i] = nodes;
+			// Trees are added group by group, each group adds the given number of parallel trees per iteration.
+			groups[i] = (i / parallelTrees) % numGroups;
+			nodes += maxNodeId(trees[i]) + 1;
+		}
+
+		int[] features = new int[nodes];
+		float[] values = new float[nodes];
+		int[] left = new int[nodes];
+		int[] right = new int[nodes];
+		int[] missing = new int[nodes];
+		for (int i = 0; i < trees.length; i++) {
+			int root = roots[i];
+			Deque<JsonNode> pending = new ArrayDeque<>();
+			pending.push(trees[i]);
+			while (!pending.isEmpty()) {
+				JsonNode node = pending.pop();
+				int id = root + node.get("nodeid").asInt();
+				if (node.has("leaf")) {
+					features[id] = -1;
+					values[id] = (float) node.get("leaf").doubleValue();
+				} else {
+					String split = node.get("split").asText();
+					if (!split.startsWith("f")) {
+						throw new IOException("Unexpected split feature: " + split);
+					}
+					features[id] = Integer.parseInt(split.substring(1));
+					values[id] = (float) node.get("split_condition").doubleValue();
+					left[id] = root + node.get("yes").asInt();
+					right[id] = root + node.get("no").asInt();
+					missing[id] = root + node.get("missing").asInt();
+					for (JsonNode child : node.get("children")) {
+						pending.push(child);
+					}
+				}
+			}
+		}
+
+		return new TreeEnsemble(roots, groups, features, values, left, right, missing, numGroups, baseMargin,
+				transformation);
+	}
+
+	private static int maxNodeId(JsonNode tree) {
+		int max = 0;
+		Deque<JsonNode> pending = new ArrayDeque<>();
+		pending.push(tree);
+		while (!pending.isEmpty()) {
+			JsonNode node = pending.pop();
+			max = Math.max(max, node.get("nodeid").asInt());
+			if (node.has("children")) {
+				for (JsonNode child : node.get("children")) {
+					pending.push(child);
+				}
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * @return the number of trees
+	 */
+	int size() {
+		return roots.length;
+	}
+
+	/**
+	 * @return the number of outputs per row
+	 */
+	int numGroups() {
+		return numGroups;
+	}
+
+	/**
+	 * Scores a single row.
+	 *
+	 * @param data         the encoded features
+	 * @param offset       the position of the row in the given data
+	 * @param output       the destination, {@link #numGroups()} values are written
+	 * @param outputOffset the position of the first output
+	 * @param margin       whether to output raw margins instead of transformed predictions
+	 */
+	void predict(float[] data, int offset, float[] output, int outputOffset, boolean margin) {
+		Arrays.fill(output, outputOffset, outputOffset + numGroups, baseMargin);
+		for (int tree = 0; tree < roots.length; tree++) {
+			int node = roots[tree];
+			while (features[node] >= 0) {
+				float value = data[offset + features[node]];
+				if (Float.isNaN(value) || value == 0) {
+					node = missing[node];
+				} else {
+					node = value < values[node] ? left[node] : right[node];
+				}
+			}
+			output[outputOffset + groups[tree]] += values[node];
+		}
+
+		if (!margin) {
+			transform(output, outputOffset);
+		}
+	}
+
+	private void transform(float[] output, int offset) {
+		switch (transformation) {
+			case SIGMOID:
+				output[offset] = 1.0f / (1.0f + (float) Math.exp(-output[offset]));
+				break;
+			case EXP:
+				output[offset] = (float) Math.exp(output[offset]);
+				break;
+			case HINGE:
+				output[offset] = output[offset] > 0 ? 1.0f : 0.0f;
+				break;
+			case SOFTMAX:
+				float max = output[offset];
+				for (int i = 1; i < numGroups; i++) {
+					max = Math.max(max, output[offset + i]);
+				}
+				double sum = 0;
+				for (int i = 0; i < numGroups; i++) {
+					output[offset + i] = (float) Math.exp(output[offset + i] - max);
+					sum += output[offset + i];
+				}
+				for (int i = 0; i < numGroups; i++) {
+					output[offset + i] /= (float) sum;
+				}
+				break;
+			case IDENTITY:
+			default:
+				break;
+		}
+	}
+
+}
@@ -24,17 +24,22 @@ package com.rapidminer.extension.xgboost.model;
 
 import java.io.IOException;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import com.rapidminer.adaption.belt.IOTable;
 
 import com.rapidminer.belt.column.Column;
+import com.rapidminer.belt.execution.Context;
+import com.rapidminer.belt.execution.SequentialContext;
 import com.rapidminer.belt.table.Table;
 import com.rapidminer.belt.table.Tables;
 import com.rapidminer.operator.Operator;
 import com.rapidminer.operator.OperatorException;
 import com.rapidminer.operator.UserError;
 import com.rapidminer.operator.learner.IOTablePredictionModel;
+import com.rapidminer.tools.belt.BeltTools;
 
 import ml.dmlc.xgboost4j.java.XGBoostError;
 
@@ -47,10 +52,25 @@ import ml.dmlc.xgboost4j.java.XGBoostError;
  */
 public class XGBoostModel extends IOTablePredictionModel {
 
+	/**
+	 * Maximum number of rows scored by the pure-Java {@link TreeEnsemble} if enabled (see
+	 * {@link XGBoostWrapper#JAVA_SCORING}). For such small requests, the overhead of native calls dominates. Larger
+	 * tables are scored by the multi-threaded native predictor.
+	 */
+	private static final int JAVA_SCORING_THRESHOLD = 1024;
+
 	private final Map<String, String> parameters;
 	private final int iterations;
 	/** Serialized XGBoost booster. */
 	private final byte[] booster;
+	/** Feature encoding plan, compiled from the training header on first use if not set on construction. */
+	private transient FeatureEncoding encoding;
+	/** Pure-Java scorer, compiled from the booster on first use. */
+	private transient TreeEnsemble ensemble;
+	/** Whether the booster cannot be compiled to a pure-Java scorer. */
+	private transient boolean ensembleUnsupported;
+	/** Per-round metrics of the training, not persisted to keep stored models compatible. */
+	private transient TrainingLog trainingLog;
 
 	/**
 	 * Default constructor for deserialization.
@@ -66,10 +86,35 @@ public class XGBoostModel extends IOTablePredictionModel {
 	 * Wraps the serialized XGBoost booster along with its parameters.
 	 */
 	public XGBoostModel(IOTable training, Map<String, String> parameters, int iterations, byte[] booster) {
+		this(training, parameters, iterations, booster, null);
+	}
+
+	/**
+	 * Wraps the serialized XGBoost booster along with its parameters and the feature encoding plan used for training.
+	 */
+	XGBoostModel(IOTable training, Map<String, String> parameters, int iterations, byte[] booster,
+				 FeatureEncoding encoding) {
+		this(training, parameters, iterations, booster, encoding, null);
+	}
+
+	/**
+	 * Wraps the serialized XGBoost booster along with its parameters, the feature encoding plan and the log of the
+	 * training.
+	 */
+	XGBoostModel(IOTable training, Map<String, String> parameters, int iterations, byte[] booster,
+				 FeatureEncoding encoding, TrainingLog trainingLog) {
 		super(training, Tables.ColumnSetRequirement.EQUAL, Tables.TypeRequirement.REQUIRE_MATCHING_TYPES);
+		// Encoding options are stored with the parameters to persist them without changing the serialized form.
+		Map<String, String> options = encoding == null ? Collections.emptyMap() : encoding.options();
+		if (!options.isEmpty()) {
+			parameters = new HashMap<>(parameters);
+			parameters.putAll(options);
+		}
 		this.parameters = parameters;
 		this.iterations = iterations;
 		this.booster = booster;
+		this.encoding = encoding;
+		this.trainingLog = trainingLog;
 	}
 
 	@Override
@@ -79,7 +124,15 @@ public class XGBoostModel extends IOTablePredictionModel {
 			return getLabelColumn();
 		}
 		try {
-			return XGBoostWrapper.predict(this, features, confidences);
+			Context context = operator == null ? new SequentialContext() : BeltTools.getContext(operator);
+			if (features.height() <= JAVA_SCORING_THRESHOLD
+					&& Boolean.parseBoolean(parameters.get(XGBoostWrapper.JAVA_SCORING))) {
+				TreeEnsemble trees = getEnsemble();
+				if (trees != null) {
+					return XGBoostWrapper.predict(this, trees, features, confidences, context);
+				}
+			}
+			return XGBoostWrapper.predict(this, features, confidences, context);
 		}  catch (ConversionException e) {
 			throw new UserError(null, e, "xgboost.conversion_error", e.getMessage());
 		} catch (XGBoostError | IOException e) {
@@ -97,9 +150,26 @@ public class XGBoostModel extends IOTablePredictionModel {
 		StringBuilder builder = new StringBuilder("XGBoost prediction model for label '")
 				.append(getLabelName())
 				.append("'.\n\nTraining hyper parameters: \n\n");
-		parameters.forEach((key, value) -> builder.append(key).append(" = ").append(value).append("\n"));
+		parameters.forEach((key, value) -> {
+			if (!FeatureEncoding.PRUNED_FEATURES.equals(key)) {
+				builder.append(key).append(" = ").append(value).append("\n");
+			}
+		});
 		builder.append("\nBoosting iterations: ")
 				.append(iterations);
+		List<String> pruned = getPrunedFeatures();
+		if (!pruned.isEmpty()) {
+			builder.append("\nUnused constant or missing features: ").append(String.join(", ", pruned));
+		}
+		if (trainingLog != null && trainingLog.size() > 0) {
+			int last = trainingLog.size() - 1;
+			builder.append(String.format("%nTraining time: %.3f s", trainingLog.getTotalDuration() / 1e9));
+			List<String> metrics = trainingLog.getMetrics();
+			for (int i = 0; i < metrics.size(); i++) {
+				builder.append("\nFinal ").append(metrics.get(i)).append(": ")
+						.append(trainingLog.getMetric(last, i));
+			}
+		}
 		return builder.toString();
 	}
 
@@ -120,4 +190,60 @@ public class XGBoostModel extends IOTablePredictionModel {
 		return booster;
 	}
 
+	/**
+	 * Returns the evaluation metrics and wall-clock time of the boosting rounds of the training of this model. The
+	 * log is not persisted, i.e., it is only available for models trained in the current session.
+	 *
+	 * @return the training log or {@code null} if not available
+	 */
+	public TrainingLog getTrainingLog() {
+		return trainingLog;
+	}
+
+	/**
+	 * Returns the regular columns of the training header that were pruned before the training since they were constant
+	 * or missing. These columns are ignored when applying the model.
+	 *
+	 * @return the labels of the pruned columns, possibly empty
+	 */
+	public List<String> getPrunedFeatures() {
+		String pruned = parameters.get(FeatureEncoding.PRUNED_FEATURES);
+		return pruned == null ? Collections.emptyList() : FeatureEncoding.splitLabels(pruned);
+	}
+
+	/**
+	 * Returns the feature encoding plan of this model. The plan is not persisted and compiled from the training header
+	 * and the encoding options stored with the parameters on first use. Concurrent first uses might compile the plan
+	 * more than once, which is harmless since plans are immutable.
+	 */
+	FeatureEncoding getEncoding() {
+		FeatureEncoding plan = encoding;
+		if (plan == null) {
+			plan = FeatureEncoding.compile(getTrainingHeader().getTable(), parameters);
+			encoding = plan;
+		}
+		return plan;
+	}
+
+	/**
+	 * Returns the pure-Java scorer of this model or {@code null} if the booster is not supported by the scorer (see
+	 * {@link TreeEnsemble}). The scorer is not persisted and compiled from the booster on first use. As for the
+	 * encoding plan, concurrent first uses might compile the scorer more than once.
+	 *
+	 * @throws XGBoostError if the model dump fails
+	 * @throws IOException  if the XGBoost deserialization fails
+	 */
+	TreeEnsemble getEnsemble() throws XGBoostError, IOException {
+		TreeEnsemble trees = ensemble;
+		if (trees == null && !ensembleUnsupported) {
+			try {
+				trees = XGBoostWrapper.compileEnsemble(this);
+				ensemble = trees;
+			} catch (IllegalArgumentException e) {
+				ensembleUnsupported = true;
+			}
+		}
+		return trees;
+	}
+
 }
@@ -23,26 +23,45 @@
 package com.rapidminer.extension.xgboost.model;
 
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import com.rapidminer.adaption.belt.IOTable;
-import com.rapidminer.belt.buffer.Buffers;
-import com.rapidminer.belt.buffer.NominalBuffer;
-import com.rapidminer.belt.buffer.NumericBuffer;
 import com.rapidminer.belt.column.Column;
 import com.rapidminer.belt.column.Columns;
 import com.rapidminer.belt.column.Dictionary;
+import com.rapidminer.belt.execution.Context;
+import com.rapidminer.belt.execution.SequentialContext;
 import com.rapidminer.belt.reader.CategoricalReader;
 import com.rapidminer.belt.reader.NumericReader;
 import com.rapidminer.belt.reader.Readers;
+import com.rapidminer.belt.table.Builders;
 import com.rapidminer.belt.table.Table;
+import com.rapidminer.belt.table.TableBuilder;
+import com.rapidminer.belt.table.Tables;
 import com.rapidminer.belt.util.ColumnRole;
 import com.rapidminer.example.AttributeWeights;
 
@@ -50,6 +69,7 @@ import ml.dmlc.xgboost4j.java.Booster;
 import ml.dmlc.xgboost4j.java.DMatrix;
 import ml.dmlc.xgboost4j.java.XGBoost;
 import ml.dmlc.xgboost4j.java.XGBoostError;
+import ml.dmlc.xgboost4j.java.util.BigDenseMatrix;
 
 
 /**
@@ -70,52 +90,982 @@ import ml.dmlc.xgboost4j.java.XGBoostError;
  */
 public class XGBoostWrapper {
 
-	/** JVM-wide lock for native XGBoost methods that are not thread-safe. */
+	/**
+	 * Encoding option (passed along with the XGBoost parameters): categorical features with more classes than the given
+	 * number are hashed into a fixed number of features instead of being one-hot encoded. Disabled if {@code 0} (the
+	 * default).
+	 */
+	public static final String HASHING_THRESHOLD = "rapidminer.hashing_threshold";
+
+	/** Encoding option (passed along with the XGBoost parameters): the number of features per hashed column. */
+	public static final String HASHING_BUCKETS = "rapidminer.hashing_buckets";
+
+	/**
+	 * Training option (passed along with the XGBoost parameters): if {@code true}, training rows that are identical
+	 * after encoding, including the label, are collapsed into a single row weighted by the sum of their weights (or
+	 * their count) before they are passed to XGBoost. Applies to the in-memory training and the grid search, but not to
+	 * external memory and cross-validation.
+	 */
+	public static final String DEDUPLICATE_ROWS = "rapidminer.deduplicate_rows";
+
+	/**
+	 * Encoding option (passed along with the XGBoost parameters): the encoding of categorical features with more than
+	 * two classes, either {@link #ONE_HOT_ENCODING} (the default) or {@link #INDEX_ENCODING}.
+	 */
+	public static final String CATEGORICAL_ENCODING = "rapidminer.categorical_encoding";
+
+	/** One feature per class (or per hash bucket, see {@link #HASHING_THRESHOLD}). */
+	public static final String ONE_HOT_ENCODING = "one_hot";
+
+	/**
+	 * A single feature per column holding the position of the class in the dictionary. XGBoost splits the positions
+	 * as ordered values, i.e., isolating a class might take more than one split, but the encoded width does not depend
+	 * on the number of classes.
+	 */
+	public static final String INDEX_ENCODING = "index";
+
+	/**
+	 * Scoring option (passed along with the XGBoost parameters and stored with the model): if {@code true}, small tables
+	 * are scored by a pure-Java implementation of the trees, which avoids the overhead of native calls. The margins are
+	 * identical, but the transformed confidences might differ from the native ones in the last digits. Disabled by
+	 * default.
+	 */
+	public static final String JAVA_SCORING = "rapidminer.java_scoring";
+
+	/**
+	 * XGBoost parameters that determine the caches built in a training matrix, e.g., the number of bins of the
+	 * histogram index. A matrix is only shared by concurrent boosters that agree on these parameters.
+	 */
+	private static final List<String> MATRIX_PARAMETERS = Arrays.asList("tree_method", "max_bin", "sketch_eps");
+
+	/**
+	 * JVM-wide lock for native XGBoost methods that are not thread-safe: training, model deserialization and the
+	 * creation of native matrices. Prediction on distinct boosters does not require the lock.
+	 */
 	private static final Object XGB_LOCK = new Object();
 
+	/**
+	 * Encoded matrices with fewer non-missing entries than the given fraction of cells are stored in sparse format. The
+	 * sparse format requires twice the memory per entry (value and column index), but no memory for missing entries.
+	 */
+	private static final double SPARSE_DENSITY_THRESHOLD = 0.25;
+
+	/** Conservative estimate of the maximum supported array size (see OpenJDK's ArraysSupport). */
+	private static final long MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+	/** Minimum number of cells for which dense matrices are staged off-heap when using the automatic layout. */
+	private static final long OFF_HEAP_STAGING_THRESHOLD = 1 << 22;
+
+	/** Number of cells converted at once when staging matrices off-heap. */
+	private static final int BLOCK_SIZE = 1 << 20;
+
+	/** Default number of encoded cells scored at once, the number of rows per block depends on the encoded width. */
+	private static final long PREDICTION_BLOCK_SIZE = 1 << 22;
+
+	/** Minimum number of encoded features for which the tiled conversion is used for dense matrices. */
+	private static final int TILED_CONVERSION_THRESHOLD = 64;
+
+	/** Minimum number of cells for which the conversion is distributed across multiple threads. */
+	private static final long PARALLEL_CONVERSION_THRESHOLD = 1 << 16;
+
+	/** Parameters that are retained from the initial model when continuing its boosting. */
+	private static final List<String> WARM_START_PARAMETERS = Arrays.asList("booster", "objective", "num_class");
+
 	private XGBoostWrapper() {
 		throw new AssertionError("Static utility class must not be initialized");
 	}
 
 	/**
-	 * Trains a new {@link XGBoostModel} on the given data.
+	 * Trains a new {@link XGBoostModel} on the given data. The input conversion runs on the calling thread. Boosting
+	 * uses the number of threads specified by the {@code nthread} parameter (XGBoost's default if not specified).
 	 */
 	public static XGBoostModel train(Table data, Table validation, Map<String, String> parameters, int iterations,
 									 int earlyStopping, BooleanSupplier sentinel)
 			throws XGBoostError, ConversionException {
+		// Without a context there is no parallelism to share, i.e., no threads are taken from the budget.
+		return train(data, validation, null, parameters, iterations, earlyStopping, sentinel, new SequentialContext(),
+				null, null, null, null, null);
+	}
+
+	/**
+	 * Trains a new {@link XGBoostModel} on the given data. The input conversion is distributed across the workers of
+	 * the given context. Unless specified by the {@code nthread} parameter, boosting uses an equal share of the
+	 * context's parallelism across concurrent training jobs, updated in between rounds (see {@link ThreadBudget}).
+	 */
+	public static XGBoostModel train(Table data, Table validation, Map<String, String> parameters, int iterations,
+									 int earlyStopping, BooleanSupplier sentinel, Context context)
+			throws XGBoostError, ConversionException {
+		return train(data, validation, parameters, iterations, earlyStopping, sentinel, context, null);
+	}
+
+	/**
+	 * Trains a new {@link XGBoostModel} on the given data, continuing the boosting of the given initial model (if not
+	 * {@code null}). The given data must be compatible with the training header of the initial model (see {@link
+	 * #requireCompatible(Table, XGBoostModel)}). The objective of the initial model is retained, other parameters
+	 * might differ. The resulting model reuses the training header of the initial model and reports the total number
+	 * of boosting iterations.
+	 *
+	 * @throws IllegalArgumentException if the data is not compatible with the initial model
+	 */
+	public static XGBoostModel train(Table data, Table validation, Map<String, String> parameters, int iterations,
+									 int earlyStopping, BooleanSupplier sentinel, Context context,
+									 XGBoostModel initialModel)
+			throws XGBoostError, ConversionException {
+		return train(data, validation, parameters, iterations, earlyStopping, sentinel, context, initialModel, null);
+	}
+
+	/**
+	 * Trains a new {@link XGBoostModel} on the given data as described above, writing checkpoints according to the
+	 * given settings (if not {@code null}). A checkpoint is also written if the training is aborted by the sentinel.
+	 * If resuming is enabled and a checkpoint with matching parameters and data exists, the boosting restarts from
+	 * this checkpoint, i.e., the resulting model is the same as for an uninterrupted training. To this end, XGBoost's
+	 * random number generator is reseeded in every round ({@code seed_per_iteration}) when checkpointing is enabled,
+	 * such that row and column sampling do not depend on where the training was resumed.
+	 *
+	 * @throws XGBoostError if a checkpoint cannot be written or restored
+	 */
+	public static XGBoostModel train(Table data, Table validation, Map<String, String> parameters, int iterations,
+									 int earlyStopping, BooleanSupplier sentinel, Context context,
+									 XGBoostModel initialModel, Checkpointing checkpointing)
+			throws XGBoostError, ConversionException {
+		return train(data, validation, parameters, iterations, earlyStopping, sentinel, context, initialModel,
+				checkpointing, null);
+	}
+
+	/**
+	 * Trains a new {@link XGBoostModel} on the given data as described above, reporting the number of completed
+	 * boosting rounds to the given progress listener (if not {@code null}) after every round. The listener is invoked
+	 * on the calling thread. The sentinel and the context are checked in between rounds. The evaluation metrics and
+	 * wall-clock time of every round are available via {@link XGBoostModel#getTrainingLog()}.
+	 */
+	public static XGBoostModel train(Table data, Table validation, Map<String, String> parameters, int iterations,
+									 int earlyStopping, BooleanSupplier sentinel, Context context,
+									 XGBoostModel initialModel, Checkpointing checkpointing, IntConsumer progress)
+			throws XGBoostError, ConversionException {
+		return train(data, validation, parameters, iterations, earlyStopping, sentinel, context, initialModel,
+				checkpointing, progress, null);
+	}
+
+	/**
+	 * Trains a new {@link XGBoostModel} on the given data as described above, using XGBoost's external-memory mode if
+	 * the given settings are not {@code null} (see {@link ExternalMemory}). In this mode, the training and validation
+	 * data is spilled to disk page by page instead of being converted to native matrices in memory.
+	 *
+	 * @throws XGBoostError if the cache files cannot be written
+	 */
+	public static XGBoostModel train(Table data, Table validation, Map<String, String> parameters, int iterations,
+									 int earlyStopping, BooleanSupplier sentinel, Context context,
+									 XGBoostModel initialModel, Checkpointing checkpointing, IntConsumer progress,
+									 ExternalMemory externalMemory)
+			throws XGBoostError, ConversionException {
+		try (ThreadBudget.Grant grant = ThreadBudget.getInstance().acquire(context.getParallelism())) {
+			return train(data, validation, null, parameters, iterations, earlyStopping, sentinel, context, grant,
+					initialModel, checkpointing, progress, externalMemory);
+		}
+	}
+
+	/**
+	 * Trains a new {@link XGBoostModel} as described above, but holds out a random share of the given data for
+	 * validation instead of taking separate validation data. The split is stratified for categorical labels (see
+	 * {@link CrossValidation#split}). Other than splitting the table beforehand, the data is encoded only once: the
+	 * training and validation matrices are sliced from the encoded data (or written to separate cache files in
+	 * external-memory mode).
+	 *
+	 * @param ratio the share of rows used for training, e.g., {@code 0.7}
+	 * @param seed  the seed of the random split
+	 * @throws IllegalArgumentException      if the ratio is not in (0, 1)
+	 * @throws CrossValidation.SplitException if either part of the split would be empty
+	 */
+	public static XGBoostModel trainWithHoldout(Table data, double ratio, long seed, Map<String, String> parameters,
+												int iterations, int earlyStopping, BooleanSupplier sentinel,
+												Context context, XGBoostModel initialModel,
+												Checkpointing checkpointing, IntConsumer progress,
+												ExternalMemory externalMemory)
+			throws XGBoostError, ConversionException {
+		if (!(ratio > 0 && ratio < 1)) {
+			throw new IllegalArgumentException("Training ratio must be between 0 and 1");
+		}
 		if (data.height() == 0) {
-			throw new IllegalArgumentException("Training table must not be empty");
+			throw new CrossValidation.SplitException("Training table must not be empty");
+		}
+		int[][] split = CrossValidation.split(data, ratio, seed);
+		if (split[0].length == 0 || split[1].length == 0) {
+			throw new CrossValidation.SplitException("Training table is too small to hold out validation rows");
+		}
+		try (ThreadBudget.Grant grant = ThreadBudget.getInstance().acquire(context.getParallelism())) {
+			return train(data, null, split, parameters, iterations, earlyStopping, sentinel, context, grant,
+					initialModel, checkpointing, progress, externalMemory);
 		}
+	}
 
-		Map<String, float[]> trainingMatrices = createTrainingMatrices(data);
-		Map<String, float[]> validationMatrices = validation == null ? null : createTrainingMatrices(validation);
+	/**
+	 * Checks whether the given data can be used to continue the boosting of the given model: the features must match
+	 * the training header of the model by name and type, the label must have the same name and type. Categorical
+	 * labels must not contain classes unknown to the model.
+	 *
+	 * @throws IllegalArgumentException if the data is not compatible
+	 */
+	public static void requireCompatible(Table data, XGBoostModel model) {
+		Table header = model.getTrainingHeader().getTable();
+		List<String> features = data.select().withoutMetaData(ColumnRole.class).labels();
+		List<String> expected = header.select().withoutMetaData(ColumnRole.class).labels();
+		if (!new HashSet<>(features).equals(new HashSet<>(expected))) {
+			throw new IllegalArgumentException("Features do not match the training header of the initial model");
+		}
+		for (String label : expected) {
+			if (!data.column(label).type().equals(header.column(label).type())) {
+				throw new IllegalArgumentException("Type of feature '" + label + "' does not match the initial model");
+			}
+		}
+
+		List<String> labels = data.select().withMetaData(ColumnRole.LABEL).labels();
+		List<String> expectedLabels = header.select().withMetaData(ColumnRole.LABEL).labels();
+		if (!labels.equals(expectedLabels)) {
+			throw new IllegalArgumentException("Label does not match the initial model");
+		}
+		Column label = data.column(labels.get(0));
+		Column expectedLabel = header.column(expectedLabels.get(0));
+		if (!label.type().equals(expectedLabel.type())) {
+			throw new IllegalArgumentException("Type of label does not match the initial model");
+		}
+		if (label.type().category() == Column.Category.CATEGORICAL) {
+			Set<String> known = new HashSet<>();
+			for (Dictionary.Entry entry : expectedLabel.getDictionary()) {
+				known.add(entry.getValue());
+			}
+			for (Dictionary.Entry entry : label.getDictionary()) {
+				if (!known.contains(entry.getValue())) {
+					throw new IllegalArgumentException("Class '" + entry.getValue()
+							+ "' is unknown to the initial model");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Trains on the given data. If a split is given (training rows, validation rows), the validation data must be
+	 * {@code null} and both matrices are sliced from the full data.
+	 */
+	private static XGBoostModel train(Table data, Table validation, int[][] split, Map<String, String> parameters,
+									  int iterations, int earlyStopping, BooleanSupplier sentinel, Context context,
+									  ThreadBudget.Grant grant, XGBoostModel initialModel,
+									  Checkpointing checkpointing, IntConsumer progress,
+									  ExternalMemory externalMemory)
+			throws XGBoostError, ConversionException {
+		if (data.height() == 0) {
+			throw new IllegalArgumentException("Training table must not be empty");
+		}
 
 		Map<String, String> trainingParameters = new HashMap<>(parameters);
+		boolean deduplicate = Boolean.parseBoolean(parameters.get(DEDUPLICATE_ROWS));
+		FeatureEncoding encoding;
+		IOTable header;
+		int initialIterations;
+		if (initialModel == null) {
+			encoding = FeatureEncoding.compilePruned(data, parameters);
+			header = new IOTable(data);
+			initialIterations = 0;
+		} else {
+			requireCompatible(data, initialModel);
+			// Label values are mapped to the category indices of the initial model.
+			Table reference = initialModel.getTrainingHeader().getTable();
+			data = Tables.adapt(data, reference, Tables.ColumnHandling.REORDER, Tables.DictionaryHandling.CHANGE);
+			if (validation != null) {
+				validation = Tables.adapt(validation, reference, Tables.ColumnHandling.REORDER,
+						Tables.DictionaryHandling.CHANGE);
+			}
+			// The boosting must continue with the objective of the initial model.
+			for (String key : WARM_START_PARAMETERS) {
+				Object value = initialModel.getParameters().get(key);
+				if (value != null) {
+					trainingParameters.put(key, value.toString());
+				}
+			}
+			// Unknown categories are treated as missing values, the encoded width must not change.
+			encoding = initialModel.getEncoding();
+			header = initialModel.getTrainingHeader();
+			initialIterations = initialModel.getIterations();
+		}
+		// Encoding options are not passed to XGBoost, the model restores them from the encoding.
+		trainingParameters.keySet().removeIf(FeatureEncoding::isOption);
 		selectObjective(data, trainingParameters);
+		if (checkpointing != null) {
+			// Reseeds the random number generator from the seed and the iteration in every round. Otherwise, a resumed
+			// training would continue with the state of the first round and sample other rows and columns.
+			trainingParameters.put("seed_per_iteration", Boolean.TRUE.toString());
+		}
+		IntSupplier threads = null;
+		if (grant != null && !trainingParameters.containsKey("nthread")) {
+			threads = grant::threads;
+			trainingParameters.put("nthread", Integer.toString(threads.getAsInt()));
+		}
 
-		synchronized (XGB_LOCK) {
-			CheckedDMatrix matrix = toMatrix(trainingMatrices);
-			matrix.setSentinel(sentinel);
-			Map<String, DMatrix> watches = validationMatrices == null
+		Path cache = null;
+		CheckedDMatrix fullMatrix = null;
+		DMatrix matrix = null;
+		DMatrix validationMatrix = null;
+		Booster booster = null;
+		try {
+			if (externalMemory != null) {
+				cache = externalMemory.createCache();
+				int pageRows = externalMemory.getPageRows();
+				fullMatrix = createExternalMatrix(data, split == null ? null : split[0], encoding, pageRows, cache,
+						"training", context);
+				if (split != null) {
+					validationMatrix = createExternalMatrix(data, split[1], encoding, pageRows, cache, "validation",
+							context);
+				} else if (validation != null) {
+					validationMatrix = createExternalMatrix(validation, null, encoding, pageRows, cache, "validation",
+							context);
+				}
+				// The width of the matrices read from disk depends on the largest feature index present.
+				trainingParameters.put("num_feature", Long.toString(encoding.width()));
+				matrix = fullMatrix;
+			} else if (deduplicate) {
+				// Slicing would not work on collapsed rows, the validation rows are converted separately and as is.
+				fullMatrix = createMatrix(split == null ? data : data.rows(split[0], context), encoding, true,
+						context);
+				matrix = fullMatrix;
+				if (split != null) {
+					validationMatrix = createMatrix(data.rows(split[1], context), encoding, context);
+				} else if (validation != null) {
+					validationMatrix = createMatrix(validation, encoding, context);
+				}
+			} else {
+				// The encoded data is not referenced beyond the creation of the native matrices.
+				fullMatrix = createMatrix(data, encoding, context);
+				matrix = fullMatrix;
+				if (split != null) {
+					synchronized (XGB_LOCK) {
+						matrix = fullMatrix.slice(split[0]);
+						validationMatrix = fullMatrix.slice(split[1]);
+					}
+					// The slices are copies, the full matrix is not needed anymore.
+					fullMatrix.dispose();
+				} else if (validation != null) {
+					validationMatrix = createMatrix(validation, encoding, context);
+				}
+			}
+			fullMatrix.setSentinel(sentinel);
+			Map<String, DMatrix> watches = validationMatrix == null
 					? Collections.emptyMap()
-					: Collections.singletonMap("validation", toMatrix(validationMatrices));
+					: Collections.singletonMap("validation", validationMatrix);
+
+			byte[] initialBooster = initialModel == null ? null : initialModel.getBooster();
+			String fingerprint = null;
+			Checkpointing.State checkpoint = null;
+			if (checkpointing != null) {
+				// The encoding and the merging of duplicate rows determine the matrices the booster is trained on.
+				Map<String, String> fingerprinted = new HashMap<>(trainingParameters);
+				fingerprinted.putAll(encoding.options());
+				if (deduplicate) {
+					fingerprinted.put(DEDUPLICATE_ROWS, Boolean.TRUE.toString());
+				}
+				if (split != null) {
+					// The holdout rows determine the training and validation data.
+					fingerprinted.put("holdout", split[1].length + ":" + Arrays.hashCode(split[1]));
+				}
+				fingerprint = Checkpointing.fingerprint(fingerprinted, data, validation, initialBooster);
+				if (checkpointing.isResume()) {
+					checkpoint = checkpointing.read(fingerprint);
+				}
+			}
+
+			// Only the creation of the booster is serialized, the boosting itself runs concurrently to other jobs.
+			if (checkpoint != null) {
+				booster = loadBooster(checkpoint.getBooster());
+			} else if (initialBooster != null) {
+				// The deserialized booster starts at version 0, i.e., all iterations are added to the existing trees.
+				booster = loadBooster(initialBooster);
+			} else {
+				synchronized (XGB_LOCK) {
+					booster = XGBoost.train(matrix, new HashMap<>(trainingParameters), 0, watches, null, null);
+				}
+			}
+			booster.setParams(new HashMap<>(trainingParameters));
+
+			Boosting boosting = boost(booster, matrix, watches, trainingParameters, iterations, earlyStopping, sentinel,
+					context, threads, checkpointing, fingerprint, checkpoint, progress, null);
+			if (boosting == null) {
+				return null;
+			}
+
+			int completedIterations = initialIterations + boosting.iterations;
+			byte[] model = booster.toByteArray();
+			if (checkpointing != null) {
+				checkpointing.delete(fingerprint);
+			}
+			return new XGBoostModel(header, withScoringOptions(trainingParameters, parameters), completedIterations,
+					model, encoding, boosting.log);
+		} catch(CheckedDMatrix.UsageBlockedException e) {
+			// Boosting aborted by sentinel before the first iteration.
+			return null;
+		} catch (IOException e) {
+			throw new XGBoostError("Failed to write or read intermediate files: " + e.getMessage(), e);
+		} finally {
+			// Booster and matrices are no longer used after this point.
+			if (booster != null) {
+				booster.dispose();
+			}
+			if (fullMatrix != null) {
+				fullMatrix.dispose();
+			}
+			if (matrix != null && matrix != fullMatrix) {
+				matrix.dispose();
+			}
+			if (validationMatrix != null) {
+				validationMatrix.dispose();
+			}
+			if (cache != null) {
+				ExternalMemory.deleteCache(cache);
+			}
+		}
+	}
+
+	/**
+	 * Trains one model per given parameter candidate and returns the best one, e.g., for grid or random searches (see
+	 * {@link GridSearch}). In contrast to repeated calls to {@link #train}, the data is encoded and converted to native
+	 * matrices only once: all candidates are boosted against the same matrices. Up to {@code concurrency} candidates
+	 * are boosted at the same time. Unless specified by the {@code nthread} parameter, they split the share of the
+	 * context's parallelism granted to this job (see {@link ThreadBudget}) evenly.
+	 * <p>
+	 * Candidates are ranked by the last evaluation metric on the validation data after their final round, i.e., all
+	 * candidates should use the same evaluation metric. Ties are resolved in favor of the earlier candidate.
+	 * Since all candidates share the encoded data, encoding options (e.g., {@link #HASHING_THRESHOLD}) are only taken
+	 * from the common parameters. For the same reason, candidates must agree on the parameters that determine the
+	 * caches XGBoost builds in the training matrix (see {@link #MATRIX_PARAMETERS}): rebuilding them while other
+	 * candidates read them is not thread-safe.
+	 *
+	 * @param parameters  the parameters common to all candidates
+	 * @param candidates  the candidate parameters, each overriding the common parameters
+	 * @param concurrency the maximum number of candidates boosted at the same time
+	 * @return the result or {@code null} if the search was aborted by the sentinel or the context
+	 * @throws IllegalArgumentException if there are no candidates, no validation data or candidates that differ in a
+	 *                                  matrix-level parameter
+	 */
+	public static GridSearch.Result trainGrid(Table data, Table validation, Map<String, String> parameters,
+											  List<Map<String, String>> candidates, int iterations, int earlyStopping,
+											  int concurrency, BooleanSupplier sentinel, Context context)
+			throws XGBoostError, ConversionException {
+		if (data.height() == 0) {
+			throw new IllegalArgumentException("Training table must not be empty");
+		}
+		if (validation == null) {
+			throw new IllegalArgumentException("Validation data is required to rank the candidates");
+		}
+		if (candidates.isEmpty()) {
+			throw new IllegalArgumentException("No candidates given");
+		}
+		if (concurrency < 1) {
+			throw new IllegalArgumentException("Concurrency must be positive");
+		}
+
+		int count = candidates.size();
+		int jobs = Math.min(concurrency, count);
+		try (ThreadBudget.Grant grant = ThreadBudget.getInstance().acquire(context.getParallelism())) {
+			IntSupplier candidateThreads = () -> Math.max(1, grant.threads() / jobs);
+			List<Map<String, String>> candidateParameters = new ArrayList<>(count);
+			boolean[] rebalanced = new boolean[count];
+			for (int i = 0; i < count; i++) {
+				Map<String, String> trainingParameters = new HashMap<>(parameters);
+				trainingParameters.putAll(candidates.get(i));
+				trainingParameters.keySet().removeIf(FeatureEncoding::isOption);
+				selectObjective(data, trainingParameters);
+				if (!trainingParameters.containsKey("nthread")) {
+					trainingParameters.put("nthread", Integer.toString(candidateThreads.getAsInt()));
+					rebalanced[i] = true;
+				}
+				candidateParameters.add(trainingParameters);
+			}
+			for (String key : MATRIX_PARAMETERS) {
+				String value = candidateParameters.get(0).get(key);
+				for (Map<String, String> trainingParameters : candidateParameters) {
+					if (!Objects.equals(value, trainingParameters.get(key))) {
+						throw new IllegalArgumentException("Candidates must not differ in the parameter " + key);
+					}
+				}
+			}
+
+			FeatureEncoding encoding = FeatureEncoding.compilePruned(data, parameters);
+			IOTable header = new IOTable(data);
+			CheckedDMatrix matrix = createMatrix(data, encoding,
+					Boolean.parseBoolean(parameters.get(DEDUPLICATE_ROWS)), context);
+			DMatrix validationMatrix = null;
+			try {
+				validationMatrix = createMatrix(validation, encoding, context);
+				matrix.setSentinel(sentinel);
+				Map<String, DMatrix> watches = Collections.singletonMap("validation", validationMatrix);
+
+				int[] completed = new int[count];
+				float[] scores = new float[count];
+				double[] seconds = new double[count];
+				XGBoostModel[] best = new XGBoostModel[1];
+				int[] bestIndex = {-1};
+				// XGBoost lazily builds caches, e.g., histogram indices, in the shared training matrix during the
+				// first round of a booster. These rounds are serialized, all later rounds run concurrently. The later
+				// rounds only read the caches since all candidates agree on the matrix-level parameters.
+				Object firstRound = new Object();
+
+				boolean finished = runConcurrently(count, jobs, i -> {
+					Map<String, String> trainingParameters = candidateParameters.get(i);
+					Booster booster = createBooster(matrix, trainingParameters, watches);
+					try {
+						Boosting boosting = boost(booster, matrix, watches, trainingParameters, iterations,
+								earlyStopping, sentinel, context, rebalanced[i] ? candidateThreads : null, null, null,
+								null, null, firstRound);
+						if (boosting == null) {
+							return false;
+						}
+						completed[i] = boosting.iterations;
+						scores[i] = boosting.score;
+						seconds[i] = boosting.log.getTotalDuration() / 1e9;
+
+						boolean maximize = Boolean.parseBoolean(trainingParameters.get("maximize_evaluation_metrics"));
+						synchronized (best) {
+							int bestCandidate = bestIndex[0];
+							if (bestCandidate < 0 || isBetter(scores[i], i, scores[bestCandidate], bestCandidate,
+									maximize)) {
+								best[0] = new XGBoostModel(header, withScoringOptions(trainingParameters, parameters),
+										boosting.iterations, booster.toByteArray(), encoding, boosting.log);
+								bestIndex[0] = i;
+							}
+						}
+						return true;
+					} finally {
+						booster.dispose();
+					}
+				}, context);
+				if (!finished || !context.isActive()) {
+					return null;
+				}
+
+				List<String> keys = candidates.stream()
+						.flatMap(candidate -> candidate.keySet().stream())
+						.distinct()
+						.sorted()
+						.collect(Collectors.toList());
+				TableBuilder builder = Builders.newTableBuilder(count);
+				for (String key : keys) {
+					builder.addNominal(key, i -> candidates.get(i).get(key));
+				}
+				builder.addInteger53Bit("iterations", i -> completed[i])
+						.addReal("score", i -> scores[i])
+						.addReal("time", i -> seconds[i]);
+				return new GridSearch.Result(best[0], candidates.get(bestIndex[0]), builder.build(context));
+			} finally {
+				matrix.dispose();
+				if (validationMatrix != null) {
+					validationMatrix.dispose();
+				}
+			}
+		} catch (CheckedDMatrix.UsageBlockedException e) {
+			// Boosting aborted by sentinel before the first iteration.
+			return null;
+		}
+	}
+
+	/**
+	 * Cross-validates the given parameters on the given data and trains a model on all rows. The data is encoded and
+	 * converted to a native matrix only once, the training and test matrices of the folds are sliced from this matrix.
+	 * The folds are stratified for categorical labels (see {@link CrossValidation}). Up to one fold per thread granted
+	 * to this job (see {@link ThreadBudget}) is boosted at the same time. The final model is boosted afterwards using
+	 * all granted threads.
+	 *
+	 * @param folds the number of folds
+	 * @param seed  the seed of the random fold assignment
+	 * @return the result or {@code null} if the cross-validation was aborted by the sentinel or the context
+	 * @throws IllegalArgumentException if there are fewer than two folds or fewer rows than folds
+	 */
+	public static CrossValidation.Result crossValidate(Table data, Map<String, String> parameters, int iterations,
+													   int folds, long seed, BooleanSupplier sentinel,
+													   Context context)
+			throws XGBoostError, ConversionException {
+		if (folds < 2) {
+			throw new IllegalArgumentException("At least two folds required");
+		}
+		if (data.height() < folds) {
+			throw new IllegalArgumentException("Training table must have at least as many rows as folds");
+		}
+
+		try (ThreadBudget.Grant grant = ThreadBudget.getInstance().acquire(context.getParallelism())) {
+			int jobs = Math.min(folds, grant.threads());
+			Map<String, String> trainingParameters = new HashMap<>(parameters);
+			trainingParameters.keySet().removeIf(FeatureEncoding::isOption);
+			selectObjective(data, trainingParameters);
+			Map<String, String> foldParameters = new HashMap<>(trainingParameters);
+			boolean rebalance = !trainingParameters.containsKey("nthread");
+			IntSupplier threads = rebalance ? grant::threads : null;
+			IntSupplier foldThreads = rebalance ? () -> Math.max(1, grant.threads() / jobs) : null;
+			if (rebalance) {
+				trainingParameters.put("nthread", Integer.toString(threads.getAsInt()));
+				foldParameters.put("nthread", Integer.toString(foldThreads.getAsInt()));
+			}
+
+			FeatureEncoding encoding = FeatureEncoding.compilePruned(data, parameters);
+			int[][] assignment = CrossValidation.assignFolds(data, folds, seed);
+			CheckedDMatrix matrix = createMatrix(data, encoding, context);
+			Booster booster = null;
+			try {
+				matrix.setSentinel(sentinel);
+
+				TrainingLog[] logs = new TrainingLog[folds];
+				boolean finished = runConcurrently(folds, jobs, fold -> {
+					// Slices are created per fold to hold at most one copy of the data per concurrent fold.
+					DMatrix training = null;
+					DMatrix test = null;
+					Booster foldBooster = null;
+					try {
+						synchronized (XGB_LOCK) {
+							training = matrix.slice(CrossValidation.complement(assignment[fold], data.height()));
+							test = matrix.slice(assignment[fold]);
+						}
+						Map<String, DMatrix> watches = Collections.singletonMap("test", test);
+						foldBooster = createBooster(training, foldParameters, watches);
+						Boosting boosting = boost(foldBooster, training, watches, foldParameters, iterations, 0,
+								sentinel, context, foldThreads, null, null, null, null, null);
+						logs[fold] = boosting == null ? null : boosting.log;
+						return boosting != null;
+					} finally {
+						if (foldBooster != null) {
+							foldBooster.dispose();
+						}
+						if (training != null) {
+							training.dispose();
+						}
+						if (test != null) {
+							test.dispose();
+						}
+					}
+				}, context);
+				if (!finished) {
+					return null;
+				}
+
+				booster = createBooster(matrix, trainingParameters, Collections.emptyMap());
+				Boosting boosting = boost(booster, matrix, Collections.emptyMap(), trainingParameters, iterations, 0,
+						sentinel, context, threads, null, null, null, null, null);
+				if (boosting == null) {
+					return null;
+				}
+				XGBoostModel model = new XGBoostModel(new IOTable(data),
+						withScoringOptions(trainingParameters, parameters), boosting.iterations, booster.toByteArray(),
+						encoding, boosting.log);
+
+				TableBuilder builder = Builders.newTableBuilder(folds)
+						.addInteger53Bit("fold", fold -> fold + 1);
+				List<String> metrics = logs[0].getMetrics();
+				for (int metric = 0; metric < metrics.size(); metric++) {
+					int index = metric;
+					builder.addReal(metrics.get(metric), fold -> logs[fold].getMetric(logs[fold].size() - 1, index));
+				}
+				return new CrossValidation.Result(model, builder.build(context));
+			} catch (IOException e) {
+				// Only thrown when checkpointing, which is not supported for cross-validation.
+				throw new XGBoostError("Unexpected I/O error: " + e.getMessage(), e);
+			} finally {
+				if (booster != null) {
+					booster.dispose();
+				}
+				matrix.dispose();
+			}
+		} catch (CheckedDMatrix.UsageBlockedException e) {
+			// Cross-validation aborted by sentinel.
+			return null;
+		}
+	}
+
+	/**
+	 * Adds the scoring options of the given user parameters to the given training parameters (which do not contain any
+	 * options) such that they are stored with the model.
+	 */
+	private static Map<String, String> withScoringOptions(Map<String, String> trainingParameters,
+														  Map<String, String> parameters) {
+		String javaScoring = parameters.get(JAVA_SCORING);
+		if (javaScoring == null) {
+			return trainingParameters;
+		}
+		Map<String, String> modelParameters = new HashMap<>(trainingParameters);
+		modelParameters.put(JAVA_SCORING, javaScoring);
+		return modelParameters;
+	}
+
+	/**
+	 * Creates a new booster for the given training matrix and parameters. The creation is serialized, see {@link
+	 * #XGB_LOCK}.
+	 */
+	private static Booster createBooster(DMatrix matrix, Map<String, String> parameters,
+										 Map<String, DMatrix> watches) throws XGBoostError {
+		Booster booster;
+		synchronized (XGB_LOCK) {
+			booster = XGBoost.train(matrix, new HashMap<>(parameters), 0, watches, null, null);
+		}
+		booster.setParams(new HashMap<>(parameters));
+		return booster;
+	}
+
+	/**
+	 * Runs the given task for the indices {@code 0} to {@code count - 1} using up to the given number of workers of
+	 * the given context. Stops early if a task returns {@code false}.
+	 *
+	 * @return whether all tasks returned {@code true}
+	 */
+	private static boolean runConcurrently(int count, int concurrency, IndexedTask task, Context context)
+			throws XGBoostError {
+		AtomicInteger next = new AtomicInteger();
+		AtomicBoolean stopped = new AtomicBoolean();
+		List<Callable<Void>> workers = new ArrayList<>(concurrency);
+		for (int worker = 0; worker < concurrency; worker++) {
+			workers.add(() -> {
+				for (int i = next.getAndIncrement(); i < count && !stopped.get(); i = next.getAndIncrement()) {
+					if (!task.run(i)) {
+						stopped.set(true);
+					}
+				}
+				return null;
+			});
+		}
+
+		try {
+			context.call(workers);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof XGBoostError) {
+				throw (XGBoostError) cause;
+			} else if (cause instanceof IOException) {
+				throw new XGBoostError("Unexpected I/O error: " + cause.getMessage(), cause);
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			} else {
+				throw new IllegalStateException(cause);
+			}
+		}
+		return !stopped.get();
+	}
+
+	/** Task of {@link #runConcurrently}, returns {@code false} to stop all remaining tasks. */
+	@FunctionalInterface
+	private interface IndexedTask {
+		boolean run(int index) throws XGBoostError, IOException;
+	}
+
+	/**
+	 * Compares the scores of two candidates, ties are resolved in favor of the candidate with the smaller index.
+	 */
+	private static boolean isBetter(float score, int index, float otherScore, int otherIndex, boolean maximize) {
+		if (score == otherScore) {
+			return index < otherIndex;
+		}
+		return maximize ? score > otherScore : score < otherScore;
+	}
+
+	/**
+	 * Runs the boosting rounds on the given booster. Mirrors the boosting loop of XGBoost.train(...), such that the
+	 * booster can be checkpointed in between iterations. The evaluation state is part of the checkpoint to resume early
+	 * stopping seamlessly. Like XGBoost.train(...), the iteration triggering early stopping is not counted (its tree is
+	 * kept).
+	 *
+	 * @param threads       supplies the current thread share of the job before every round, {@code null} if the number
+	 *                      of threads is fixed by the parameters
+	 * @param checkpointing the checkpoint settings or {@code null}
+	 * @param fingerprint   the fingerprint of the checkpoints
+	 * @param checkpoint    the checkpoint to resume from or {@code null}
+	 * @param progress      the progress listener or {@code null}
+	 * @param lock          if not {@code null}, the first round is run while holding this lock
+	 * @return the outcome of the boosting or {@code null} if aborted by the sentinel or the context
+	 */
+	private static Boosting boost(Booster booster, DMatrix matrix, Map<String, DMatrix> watches,
+								  Map<String, String> parameters, int iterations, int earlyStopping,
+								  BooleanSupplier sentinel, Context context, IntSupplier threads,
+								  Checkpointing checkpointing, String fingerprint, Checkpointing.State checkpoint,
+								  IntConsumer progress, Object lock) throws XGBoostError, IOException {
+		DMatrix[] evaluationMatrices = watches.values().toArray(new DMatrix[0]);
+		String[] evaluationNames = watches.keySet().toArray(new String[0]);
+		float[] metrics = new float[evaluationMatrices.length];
+		boolean maximize = Boolean.parseBoolean(parameters.get("maximize_evaluation_metrics"));
+		int iteration = checkpoint == null ? 0 : checkpoint.getIteration();
+		int bestIteration = checkpoint == null ? 0 : checkpoint.getBestIteration();
+		float bestScore = checkpoint != null ? checkpoint.getBestScore()
+				: maximize ? -Float.MAX_VALUE : Float.MAX_VALUE;
+		float score = Float.NaN;
+		int firstIteration = iteration;
+		int lastCheckpoint = iteration;
+		long lastCheckpointTime = System.nanoTime();
+		TrainingLog log = new TrainingLog(iteration);
+		String nthread = parameters.get("nthread");
+		try {
+			for (; iteration < iterations; iteration++) {
+				// Native calls cannot be interrupted, thus the sentinel is also checked before every round.
+				if (!context.isActive() || !sentinel.getAsBoolean()) {
+					throw new CheckedDMatrix.UsageBlockedException();
+				}
+				// The share changes as concurrent jobs start or finish, running jobs are rebalanced between rounds.
+				if (threads != null) {
+					String share = Integer.toString(threads.getAsInt());
+					if (!share.equals(nthread)) {
+						booster.setParam("nthread", share);
+						nthread = share;
+					}
+				}
+				if (checkpointing != null && checkpointing.isDue(iteration - lastCheckpoint,
+						System.nanoTime() - lastCheckpointTime)) {
+					checkpointing.write(fingerprint, new Checkpointing.State(booster.toByteArray(), iteration,
+							bestIteration, bestScore));
+					lastCheckpoint = iteration;
+					lastCheckpointTime = System.nanoTime();
+				}
+				long start = System.nanoTime();
+				String evaluation;
+				if (lock != null && iteration == firstIteration) {
+					synchronized (lock) {
+						evaluation = boostRound(booster, matrix, iteration, evaluationMatrices, evaluationNames,
+								metrics);
+					}
+				} else {
+					evaluation = boostRound(booster, matrix, iteration, evaluationMatrices, evaluationNames, metrics);
+				}
+				log.record(System.nanoTime() - start, evaluation);
+				if (progress != null) {
+					progress.accept(iteration + 1);
+				}
+				if (evaluation != null) {
+					score = metrics[metrics.length - 1];
+					if (maximize ? score > bestScore : score < bestScore) {
+						bestScore = score;
+						bestIteration = iteration;
+					}
+					if (earlyStopping > 0 && iteration - bestIteration >= earlyStopping) {
+						break;
+					}
+				}
+			}
+		} catch (CheckedDMatrix.UsageBlockedException e) {
+			// Boosting aborted by sentinel or context, the booster is in the state of the last completed iteration.
+			if (checkpointing != null && iteration > lastCheckpoint) {
+				checkpointing.write(fingerprint, new Checkpointing.State(booster.toByteArray(), iteration,
+						bestIteration, bestScore));
+			}
+			return null;
+		}
+		return new Boosting(iteration, score, log);
+	}
+
+	/**
+	 * Runs a single boosting round and evaluates the booster on the given matrices (if any).
+	 *
+	 * @return the evaluation string or {@code null} if there are no evaluation matrices
+	 */
+	private static String boostRound(Booster booster, DMatrix matrix, int iteration, DMatrix[] evaluationMatrices,
+									 String[] evaluationNames, float[] metrics) throws XGBoostError {
+		booster.update(matrix, iteration);
+		return evaluationMatrices.length > 0
+				? booster.evalSet(evaluationMatrices, evaluationNames, iteration, metrics)
+				: null;
+	}
+
+	/**
+	 * Outcome of the boosting loop.
+	 */
+	private static final class Boosting {
+
+		/** Number of completed iterations, including restored ones. */
+		private final int iterations;
+		/** Last evaluation score or {@link Float#NaN} if there is no validation data. */
+		private final float score;
+		private final TrainingLog log;
+
+		private Boosting(int iterations, float score, TrainingLog log) {
+			this.iterations = iterations;
+			this.score = score;
+			this.log = log;
+		}
+
+	}
+
+	/**
+	 * Trains a new {@link XGBoostModel} on the given data using multiple worker processes on the local host (see
+	 * {@link DistributedTraining}). The rows of the training data are split into one partition per worker, every
+	 * worker receives the full validation data. Partitions are converted one at a time, i.e., at most one partition is
+	 * held in native memory by this JVM. Unless specified by the {@code nthread} parameter, the share of the context's
+	 * parallelism granted to this job (see {@link ThreadBudget}) is split evenly across the workers.
+	 *
+	 * @param workers the number of worker processes, at most one worker per row is started
+	 * @throws IOException if the workers cannot be started or the intermediate files cannot be written
+	 */
+	public static XGBoostModel trainDistributed(Table data, Table validation, Map<String, String> parameters,
+												int iterations, int earlyStopping, int workers,
+												BooleanSupplier sentinel, Context context)
+			throws XGBoostError, ConversionException, IOException {
+		return trainDistributed(data, validation, parameters, iterations, earlyStopping, workers, sentinel, context,
+				DistributedTraining.LOCAL);
+	}
+
+	static XGBoostModel trainDistributed(Table data, Table validation, Map<String, String> parameters,
+										 int iterations, int earlyStopping, int workers, BooleanSupplier sentinel,
+										 Context context, DistributedTraining.WorkerLauncher launcher)
+			throws XGBoostError, ConversionException, IOException {
+		if (data.height() == 0) {
+			throw new IllegalArgumentException("Training table must not be empty");
+		}
+		if (workers < 1) {
+			throw new IllegalArgumentException("Number of workers must be positive");
+		}
+
+		int partitions = Math.min(workers, data.height());
+		Map<String, String> trainingParameters = new HashMap<>(parameters);
+		trainingParameters.keySet().removeIf(FeatureEncoding::isOption);
+		selectObjective(data, trainingParameters);
+		FeatureEncoding encoding = FeatureEncoding.compilePruned(data, parameters);
 
-			try {
-				Booster booster = XGBoost.train(matrix, new HashMap<>(trainingParameters), iterations, watches,
-						null, null, null, earlyStopping);
-				int completedIterations = booster.getVersion() / 2;
-				byte[] model = booster.toByteArray();
+		Path directory = Files.createTempDirectory("xgboost-");
+		try (ThreadBudget.Grant grant = ThreadBudget.getInstance().acquire(context.getParallelism())) {
+			if (!trainingParameters.containsKey("nthread")) {
+				trainingParameters.put("nthread", Integer.toString(Math.max(1, grant.threads() / partitions)));
+			}
 
-				// Booster is no longer used after this point.
-				booster.dispose();
+			List<Path> files = new ArrayList<>(partitions);
+			for (int[] range : splitRows(data.height(), partitions)) {
+				Path file = directory.resolve("partition-" + files.size() + ".buffer");
+				saveMatrix(data.rows(range[0], range[1], context), encoding, file, context);
+				files.add(file);
+			}
+			Path validationFile = null;
+			if (validation != null) {
+				validationFile = directory.resolve("validation.buffer");
+				saveMatrix(validation, encoding, validationFile, context);
+			}
 
-				return new XGBoostModel(new IOTable(data), trainingParameters, completedIterations, model);
-			} catch(CheckedDMatrix.UsageBlockedException e) {
+			DistributedTraining.Result result = DistributedTraining.train(files, validationFile, trainingParameters,
+					iterations, earlyStopping, directory, sentinel, launcher);
+			if (result == null) {
 				// Boosting aborted by sentinel.
 				return null;
-			} finally {
-				// Matrix is no longer used after this point.
-				matrix.dispose();
+			}
+			return new XGBoostModel(new IOTable(data), withScoringOptions(trainingParameters, parameters),
+					result.getIterations(), result.getModel(), encoding);
+		} finally {
+			deleteDirectory(directory);
+		}
+	}
+
+	/**
+	 * Converts the given table including label and weights to an XGBoost binary buffer.
+	 */
+	private static void saveMatrix(Table table, FeatureEncoding encoding, Path file, Context context)
+			throws XGBoostError, ConversionException {
+		CheckedDMatrix matrix = createMatrix(table, encoding, context);
+		try {
+			matrix.saveBinary(file.toString());
+		} finally {
+			matrix.dispose();
+		}
+	}
+
+	private static void deleteDirectory(Path directory) throws IOException {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+				Files.deleteIfExists(path);
 			}
 		}
 	}
@@ -131,10 +1081,15 @@ public class XGBoostWrapper {
 	 */
 	public static AttributeWeights getWeights(XGBoostModel model, IOTable table) throws XGBoostError, IOException {
 		Map<String, Double> scores;
-		synchronized (XGB_LOCK) {
-			Booster booster = XGBoost.loadModel(model.getBooster());
-			scores = booster.getScore(model.getTrainingHeader().getTable().labels().toArray(new String[0]), "total_gain");
-			booster.dispose();
+		try (BoosterCache.Lease lease = BoosterCache.getInstance().acquire(model.getBooster(),
+				XGBoostWrapper::loadBooster)) {
+			// Encoded features are named after their source column, i.e., the scores are summed per column.
+			FeatureEncoding encoding = model.getEncoding();
+			String[] names = new String[(int) encoding.width()];
+			for (int i = 0; i < encoding.size(); i++) {
+				Arrays.fill(names, encoding.offset(i), encoding.offset(i) + encoding.width(i), encoding.label(i));
+			}
+			scores = lease.booster().getScore(names, "total_gain");
 		}
 
 		AttributeWeights weights = new AttributeWeights(table);
@@ -147,37 +1102,217 @@ public class XGBoostWrapper {
 
 	/**
 	 * Applies the given model to the given features and returns the prediction as new {@link Column}. If available,
-	 * class scores are added to the given map.
+	 * class scores are added to the given map. The input conversion runs on the calling thread.
 	 *
 	 * @throws IOException if the XGBoost deserialization fails
 	 */
 	public static Column predict(XGBoostModel model, Table features, Map<String, Column> scores)
 			throws XGBoostError, IOException {
+		return predict(model, features, scores, new SequentialContext());
+	}
+
+	/**
+	 * Applies the given model to the given features and returns the prediction as new {@link Column}. If available,
+	 * class scores are added to the given map. The input conversion is distributed across the workers of the given
+	 * context.
+	 *
+	 * @throws IOException if the XGBoost deserialization fails
+	 */
+	public static Column predict(XGBoostModel model, Table features, Map<String, Column> scores, Context context)
+			throws XGBoostError, IOException {
+		long width = Math.max(1, model.getEncoding().width());
+		int blockSize = (int) Math.max(1, Math.min(Integer.MAX_VALUE, PREDICTION_BLOCK_SIZE / width));
+		return predict(model, features, scores, context, blockSize);
+	}
+
+	/**
+	 * Applies the given model to the given features and returns the prediction as new {@link Column}. If available,
+	 * class scores are added to the given map.
+	 * <p>
+	 * The features are scored in blocks of the given number of rows, i.e., the memory required for the intermediate
+	 * representations does not depend on the size of the table. If the given context allows for parallel execution,
+	 * the encoding of the next block overlaps with the prediction of the current block.
+	 *
+	 * @param blockSize the number of rows per block
+	 * @throws IOException if the XGBoost deserialization fails
+	 */
+	public static Column predict(XGBoostModel model, Table features, Map<String, Column> scores, Context context,
+								 int blockSize) throws XGBoostError, IOException {
 		if (features.height() == 0) {
 			throw new IllegalArgumentException("Scoring table must not be empty");
 		}
+		if (blockSize < 1) {
+			throw new IllegalArgumentException("Block size must be positive");
+		}
 
-		float[] featureMatrix = XGBoostWrapper.createFeatureMatrix(features);
-		int width = featureMatrix.length / features.height();
 		int height = features.height();
+		FeatureEncoding encoding = model.getEncoding().adapt(features);
+		PredictionWriter writer = PredictionWriter.create(model.getLabelColumn(), height);
+		boolean overlap = context.getParallelism() > 1 && height > blockSize;
 
-		float[][] predictions;
-		synchronized (XGB_LOCK) {
-				Booster booster = XGBoost.loadModel(model.getBooster());
-				DMatrix matrix = new DMatrix(featureMatrix, height, width);
-				predictions = booster.predict(matrix);
-				// Do not wait for GC to free native resources.
-				matrix.dispose();
-				booster.dispose();
+		// Leased boosters are used exclusively by this thread, thus different threads can predict concurrently.
+		DMatrix next = null;
+		try (BoosterCache.Lease lease = BoosterCache.getInstance().acquire(model.getBooster(),
+				XGBoostWrapper::loadBooster)) {
+			Booster booster = lease.booster();
+			next = createBlockMatrix(features, encoding, 0, Math.min(blockSize, height), context);
+			for (int start = 0; start < height; start += blockSize) {
+				int nextStart = Math.min(start + blockSize, height);
+				int nextEnd = Math.min(nextStart + blockSize, height);
+				DMatrix matrix = next;
+				next = null;
+				try {
+					if (nextStart == nextEnd) {
+						writer.write(booster.predict(matrix), start);
+					} else if (overlap) {
+						next = predictAndEncode(booster, matrix, features, encoding, nextStart, nextEnd, writer, start,
+								context);
+					} else {
+						writer.write(booster.predict(matrix), start);
+						next = createBlockMatrix(features, encoding, nextStart, nextEnd, context);
+					}
+				} finally {
+					// Do not wait for GC to free native resources.
+					matrix.dispose();
+				}
+			}
+		} finally {
+			if (next != null) {
+				next.dispose();
+			}
 		}
 
-		Column label = model.getLabelColumn();
-		if (label.type().category() == Column.Category.CATEGORICAL) {
-			return Columns.isAtMostBicategorical(label)
-					? predictBicategorical(predictions, label, scores)
-					: predictCategorical(predictions, label, scores);
-		} else {
-			return predictRegression(predictions);
+		return writer.finish(scores);
+	}
+
+	/**
+	 * Predicts the given block and encodes the next block at the same time. The next block is encoded on a single
+	 * worker of the given context, while the prediction uses the booster's own threads.
+	 *
+	 * @return the native matrix of the next block
+	 */
+	private static DMatrix predictAndEncode(Booster booster, DMatrix matrix, Table features, FeatureEncoding encoding,
+										   int nextStart, int nextEnd, PredictionWriter writer, int start,
+										   Context context) throws XGBoostError, IOException {
+		AtomicReference<float[][]> predictions = new AtomicReference<>();
+		AtomicReference<DMatrix> next = new AtomicReference<>();
+		List<Callable<Void>> tasks = Arrays.asList(
+				() -> {
+					predictions.set(booster.predict(matrix));
+					return null;
+				},
+				() -> {
+					next.set(createBlockMatrix(features, encoding, nextStart, nextEnd, new SequentialContext()));
+					return null;
+				});
+
+		try {
+			context.call(tasks);
+		} catch (ExecutionException e) {
+			if (next.get() != null) {
+				next.get().dispose();
+			}
+			Throwable cause = e.getCause();
+			if (cause instanceof XGBoostError) {
+				throw (XGBoostError) cause;
+			} else if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			} else {
+				throw new IllegalStateException(cause);
+			}
+		}
+
+		writer.write(predictions.get(), start);
+		return next.get();
+	}
+
+	/**
+	 * Converts the rows {@code from} (inclusive) to {@code to} (exclusive) of the given table to a new native matrix.
+	 */
+	private static DMatrix createBlockMatrix(Table table, FeatureEncoding encoding, int from, int to,
+											 Context context) throws XGBoostError, ConversionException {
+		Table block = from == 0 && to == table.height() ? table : table.rows(from, to, context);
+		return createMatrix(createFeatureMatrix(block, encoding, FeatureMatrix.Layout.AUTO, context));
+	}
+
+	/**
+	 * Compiles the trees of the given model into a pure-Java {@link TreeEnsemble}.
+	 *
+	 * @param model the wrapped booster
+	 * @return the compiled ensemble
+	 * @throws XGBoostError             if the model dump fails
+	 * @throws IOException              if the XGBoost deserialization or the parsing of the dump fails
+	 * @throws IllegalArgumentException if the booster or objective is not supported by the pure-Java scorer
+	 */
+	static TreeEnsemble compileEnsemble(XGBoostModel model) throws XGBoostError, IOException {
+		String[] dump;
+		try (BoosterCache.Lease lease = BoosterCache.getInstance().acquire(model.getBooster(),
+				XGBoostWrapper::loadBooster)) {
+			dump = lease.booster().getModelDump("", false, "json");
+		}
+		return TreeEnsemble.compile(dump, model.getParameters());
+	}
+
+	/**
+	 * Applies the given model to the given features using the given pure-Java ensemble compiled from the model (see
+	 * {@link #compileEnsemble(XGBoostModel)}). Unlike the native prediction, this method neither calls native code nor
+	 * requires any locks. Rows are scored in blocks, the rows of a block are distributed across the workers of the
+	 * given context.
+	 *
+	 * @throws ConversionException if the encoded features exceed the runtime limits
+	 */
+	static Column predict(XGBoostModel model, TreeEnsemble ensemble, Table features, Map<String, Column> scores,
+						  Context context) throws ConversionException {
+		if (features.height() == 0) {
+			throw new IllegalArgumentException("Scoring table must not be empty");
+		}
+
+		int height = features.height();
+		FeatureEncoding encoding = model.getEncoding().adapt(features);
+		PredictionWriter writer = PredictionWriter.create(model.getLabelColumn(), height);
+		int groups = ensemble.numGroups();
+		long width = Math.max(1, encoding.width());
+		int blockSize = (int) Math.max(1, Math.min(height, PREDICTION_BLOCK_SIZE / width));
+
+		for (int start = 0; start < height; start += blockSize) {
+			int end = Math.min(start + blockSize, height);
+			Table block = start == 0 && end == height ? features : features.rows(start, end, context);
+			FeatureMatrix.Dense matrix = (FeatureMatrix.Dense) createFeatureMatrix(block, encoding,
+					FeatureMatrix.Layout.DENSE, context);
+			float[] values = matrix.values();
+			int rowWidth = matrix.width();
+			float[] predictions = new float[(end - start) * groups];
+
+			// Every row range writes to its own segment of the shared array.
+			List<int[]> ranges = splitRows(end - start,
+					getConversionParallelism((long) (end - start) * ensemble.size(), end - start, context));
+			List<Runnable> scorers = new ArrayList<>(ranges.size());
+			for (int[] range : ranges) {
+				scorers.add(() -> {
+					for (int row = range[0]; row < range[1]; row++) {
+						ensemble.predict(values, row * rowWidth, predictions, row * groups, false);
+					}
+				});
+			}
+			convertInParallel(scorers, ranges.size(), context);
+
+			writer.write(predictions, groups, start);
+		}
+
+		return writer.finish(scores);
+	}
+
+	/**
+	 * Deserializes the given booster. Boosters used for prediction should be obtained from the {@link BoosterCache}
+	 * instead.
+	 */
+	private static Booster loadBooster(byte[] model) throws XGBoostError, IOException {
+		synchronized (XGB_LOCK) {
+			return XGBoost.loadModel(model);
 		}
 	}
 
@@ -197,160 +1332,457 @@ public class XGBoostWrapper {
 		}
 	}
 
-	private static CheckedDMatrix toMatrix(Map<String, float[]> matrices) throws XGBoostError {
-		float[] features = matrices.get("features");
+	/**
+	 * Converts the given table including label and weights to a new native matrix. The intermediate representations
+	 * are released as soon as the native matrix exists.
+	 */
+	private static CheckedDMatrix createMatrix(Table table, FeatureEncoding encoding, Context context)
+			throws XGBoostError, ConversionException {
+		return createMatrix(table, encoding, false, context);
+	}
+
+	/**
+	 * Converts the given table including label and weights to a new native matrix. If requested, rows that are
+	 * identical after encoding are collapsed first (see {@link DuplicateRows}).
+	 */
+	private static CheckedDMatrix createMatrix(Table table, FeatureEncoding encoding, boolean deduplicate,
+											   Context context) throws XGBoostError, ConversionException {
+		Map<String, float[]> matrices = createTrainingMatrices(table, context);
 		float[] label = matrices.get("label");
+		float[] weights = matrices.get("weights");
+		DuplicateRows duplicates = deduplicate
+				? DuplicateRows.find(table, encoding.adapt(table), label, weights)
+				: null;
+		if (duplicates != null) {
+			int[] rows = duplicates.rows();
+			table = table.rows(rows, context);
+			float[] selectedLabel = new float[rows.length];
+			for (int i = 0; i < rows.length; i++) {
+				selectedLabel[i] = label[rows[i]];
+			}
+			label = selectedLabel;
+			weights = duplicates.weights();
+		}
+		CheckedDMatrix matrix = createMatrix(createFeatureMatrix(table, encoding, FeatureMatrix.Layout.AUTO, context));
+		try {
+			matrix.setLabel(label);
+			if (weights != null) {
+				matrix.setWeight(weights);
+			}
+		} catch (XGBoostError | RuntimeException e) {
+			matrix.dispose();
+			throw e;
+		}
+		return matrix;
+	}
 
-		int height = label.length;
-		int width = features.length / height;
+	/**
+	 * Writes the given rows of the table (all rows if {@code null}) including label and weights to a LIBSVM file in
+	 * the given cache directory and loads it as external-memory matrix. Only one page of rows is encoded at a time.
+	 * The file holds the same entries as the in-memory sparse layout: missing values and zeros are omitted.
+	 */
+	private static CheckedDMatrix createExternalMatrix(Table table, int[] rows, FeatureEncoding encoding,
+													   int pageRows, Path cache, String name, Context context)
+			throws IOException, XGBoostError, ConversionException {
+		Path file = cache.resolve(name + ".libsvm");
+		int height = rows == null ? table.height() : rows.length;
+		try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.US_ASCII)) {
+			for (int from = 0; from < height; from += pageRows) {
+				int to = (int) Math.min((long) from + pageRows, height);
+				Table page = rows == null ? table.rows(from, to, context)
+						: table.rows(Arrays.copyOfRange(rows, from, to), context);
+				writePage(page, encoding, writer, context);
+			}
+		}
+		synchronized (XGB_LOCK) {
+			return new CheckedDMatrix(file + "#" + cache.resolve(name + ".cache"));
+		}
+	}
 
-		CheckedDMatrix matrix = new CheckedDMatrix(features, height, width);
-		matrix.setLabel(label);
-		if (matrices.containsKey("weights")) {
-			matrix.setWeight(matrices.get("weights"));
+	/**
+	 * Appends the given rows in LIBSVM format ({@code label[:weight] index:value ...}, zero-based indices).
+	 */
+	private static void writePage(Table page, FeatureEncoding encoding, Writer writer, Context context)
+			throws IOException, ConversionException {
+		Map<String, float[]> matrices = createTrainingMatrices(page, context);
+		float[] label = matrices.get("label");
+		float[] weights = matrices.get("weights");
+		FeatureMatrix.Sparse features = (FeatureMatrix.Sparse) createFeatureMatrix(page, encoding,
+				FeatureMatrix.Layout.SPARSE, context);
+		long[] rowHeaders = features.rowHeaders();
+		int[] columnIndices = features.columnIndices();
+		float[] values = features.values();
+		StringBuilder line = new StringBuilder();
+		for (int row = 0; row < label.length; row++) {
+			line.setLength(0);
+			line.append(label[row]);
+			if (weights != null) {
+				line.append(':').append(weights[row]);
+			}
+			for (int entry = (int) rowHeaders[row]; entry < rowHeaders[row + 1]; entry++) {
+				line.append(' ').append(columnIndices[entry]).append(':').append(values[entry]);
+			}
+			line.append('\n');
+			writer.write(line.toString());
 		}
+	}
 
-		return matrix;
+	/**
+	 * Copies the given features to a new native matrix and releases the features' memory not managed by the JVM.
+	 */
+	private static CheckedDMatrix createMatrix(FeatureMatrix features) throws XGBoostError {
+		try {
+			synchronized (XGB_LOCK) {
+				return features.toDMatrix();
+			}
+		} finally {
+			// The native matrix holds a copy of the data.
+			features.dispose();
+		}
 	}
 
-	private static Column predictBicategorical(float[][] predictions, Column label, Map<String, Column> scores) {
-		Dictionary dictionary = label.getDictionary();
-		int negativeIndex = dictionary.isBoolean() ?
-				dictionary.getNegativeIndex() :
-				IntStream.range(1, dictionary.maximalIndex())
-						.filter(i -> dictionary.get(i) != null)
-						.findFirst().orElse(-1);
-		int positiveIndex = dictionary.isBoolean() ? dictionary.getPositiveIndex() : dictionary.maximalIndex();
+	static FeatureMatrix createFeatureMatrix(Table table, Context context) throws ConversionException {
+		return createFeatureMatrix(table, FeatureMatrix.Layout.AUTO, context);
+	}
 
-		String negativeValue = dictionary.get(negativeIndex);
-		String positiveValue = dictionary.get(positiveIndex);
+	static FeatureMatrix createFeatureMatrix(Table table, FeatureMatrix.Layout layout, Context context)
+			throws ConversionException {
+		return createFeatureMatrix(table, FeatureEncoding.compile(table), layout, context);
+	}
+
+	/**
+	 * Converts the features of the given table as specified by the given encoding plan. The plan is adapted to the
+	 * dictionaries of the table if necessary.
+	 */
+	static FeatureMatrix createFeatureMatrix(Table table, FeatureEncoding encoding, FeatureMatrix.Layout layout,
+											 Context context) throws ConversionException {
+		FeatureEncoding adapted = encoding.adapt(table);
 
-		NominalBuffer clazz = Buffers.nominalBuffer(predictions.length);
-		NumericBuffer negativeScore = Buffers.realBuffer(predictions.length, false);
-		NumericBuffer positiveScore = Buffers.realBuffer(predictions.length, false);
-		for (int i = 0; i < predictions.length; i++) {
-			float score = predictions[i][0];
-			clazz.set(i, score < 0.5 ? negativeValue : positiveValue);
-			negativeScore.set(i, 1.0 - score);
-			positiveScore.set(i, score);
+		// Every column contributes at most one non-missing entry per row, independent of its encoded width.
+		long sourceFeatures = adapted.size();
+		long encodedFeatures = adapted.width();
+		if (layout == FeatureMatrix.Layout.AUTO) {
+			layout = selectLayout(sourceFeatures, encodedFeatures, table.height());
 		}
 
-		// There is no negative value if there is only one class.
-		if (negativeValue != null) {
-			scores.put(negativeValue, negativeScore.toColumn());
+		long cells = (layout == FeatureMatrix.Layout.SPARSE ? sourceFeatures : encodedFeatures) * table.height();
+		if (layout != FeatureMatrix.Layout.OFF_HEAP && cells > MAX_ARRAY_SIZE) {
+			throw new ConversionException("Size of encoded data set exceeds runtime limit");
+		}
+		if (encodedFeatures > Integer.MAX_VALUE) {
+			throw new ConversionException("Number of encoded features exceeds runtime limit");
 		}
-		scores.put(positiveValue, positiveScore.toColumn());
 
-		return Columns.changeDictionary(clazz.toColumn(), label);
+		switch (layout) {
+			case SPARSE:
+				return createSparseFeatureMatrix(table, adapted, context);
+			case OFF_HEAP:
+				return createOffHeapFeatureMatrix(table, adapted, context);
+			default:
+				return createDenseFeatureMatrix(table, adapted, encodedFeatures >= TILED_CONVERSION_THRESHOLD,
+						context);
+		}
 	}
 
-	private static Column predictCategorical(float[][] predictions, Column label, Map<String, Column> scores) {
-		int nClasses = predictions[0].length;
-		Dictionary dictionary = label.getDictionary();
-		NominalBuffer clazz = Buffers.nominalBuffer(predictions.length);
-		NumericBuffer[] scoreBuffers = new NumericBuffer[nClasses];
-		Arrays.setAll(scoreBuffers, i -> Buffers.realBuffer(predictions.length, false));
+	/**
+	 * Creates a dense feature matrix using either the tiled, row-major conversion or the column-wise conversion. The
+	 * tiled conversion is faster for wide matrices, for which writing one column at a time touches a different cache
+	 * line for every value (see {@code FeatureConversionBenchmark}).
+	 */
+	static FeatureMatrix createDenseFeatureMatrix(Table table, FeatureEncoding encoding, boolean tiled,
+												 Context context) {
+		List<Column> columns = encoding.columns(table);
+		int width = (int) encoding.width();
+		int height = table.height();
+		float[] features = new float[width * height];
+		long cells = (long) width * height;
 
-		for (int y = 0; y < predictions.length; y++) {
-			float[] row = predictions[y];
-			float maxScore = Float.NEGATIVE_INFINITY;
-			int maxIndex = -1;
-			for (int x = 0; x < nClasses; x++) {
-				float score = row[x];
-				if (score > maxScore) {
-					maxScore = score;
-					maxIndex = x;
-				}
-				scoreBuffers[x].set(y, score);
+		if (tiled) {
+			TiledFeatureWriter writer = new TiledFeatureWriter(encoding, columns);
+
+			// Every row range writes to its own segment of the shared array.
+			List<int[]> ranges = splitRows(height, getConversionParallelism(cells, height, context));
+			List<Runnable> conversions = new ArrayList<>(ranges.size());
+			for (int[] range : ranges) {
+				conversions.add(() -> writer.write(range[0], range[1], features, range[0] * width));
 			}
-			clazz.set(y, dictionary.get(maxIndex + 1));
+			convertInParallel(conversions, ranges.size(), context);
+
+			return new FeatureMatrix.Dense(features, height, width);
 		}
 
-		for (int i = 0; i < nClasses; i++) {
-			String value = dictionary.get(i + 1);
-			if (value != null) {
-				scores.put(value, scoreBuffers[i].toColumn());
+		Arrays.fill(features, Float.NaN);
+
+		// Every column writes to its own slots of the shared array, thus the columns can be converted in parallel.
+		List<Runnable> conversions = new ArrayList<>(columns.size());
+		for (int i = 0; i < columns.size(); i++) {
+			Column column = columns.get(i);
+			int offset = encoding.offset(i);
+			switch (encoding.kind(i)) {
+				case NUMERIC:
+					conversions.add(() -> readNumericColumn(column, features, offset, width));
+					break;
+				case BICATEGORICAL:
+					int negative = encoding.negative(i);
+					int positive = encoding.positive(i);
+					conversions.add(() -> readBicategoricalColumn(Readers.categoricalReader(column), height,
+							negative, positive, features, offset, width));
+					break;
+				case INDEX:
+					int[] codes = encoding.indexMap(i);
+					conversions.add(() -> readIndexColumn(Readers.categoricalReader(column), height, codes, features,
+							offset, width));
+					break;
+				default:
+					int[] indexMap = encoding.indexMap(i);
+					conversions.add(() -> readCategoricalColumn(Readers.categoricalReader(column), height, indexMap,
+							features, offset, width));
+					break;
 			}
 		}
 
-		return Columns.changeDictionary(clazz.toColumn(), label);
+		convertInParallel(conversions, getConversionParallelism(cells, conversions.size(), context), context);
+
+		return new FeatureMatrix.Dense(features, height, width);
 	}
 
-	private static Column predictRegression(float[][] predictions) {
-		NumericBuffer predictionBuffer = Buffers.realBuffer(predictions.length, false);
-		for (int y = 0; y < predictions.length; y++) {
-			predictionBuffer.set(y, predictions[y][0]);
+	/**
+	 * Selects the most compact layout that is not subject to the Java array size limit. The sparse layout is used if
+	 * the encoded data is sufficiently sparse, the dense layout otherwise. Large dense matrices are staged off-heap:
+	 * the rows are encoded block by block and copied into a native buffer, which, unlike a Java array, the JNI layer
+	 * does not need to copy once more. The buffer is released right after the creation of the native matrix.
+	 *
+	 * @param sourceFeatures  the number of feature columns
+	 * @param encodedFeatures the number of encoded features
+	 * @param height          the number of rows
+	 * @return the selected layout
+	 */
+	static FeatureMatrix.Layout selectLayout(long sourceFeatures, long encodedFeatures, int height) {
+		if (sourceFeatures < SPARSE_DENSITY_THRESHOLD * encodedFeatures && sourceFeatures * height <= MAX_ARRAY_SIZE) {
+			return FeatureMatrix.Layout.SPARSE;
+		} else if (encodedFeatures * height < OFF_HEAP_STAGING_THRESHOLD) {
+			return FeatureMatrix.Layout.DENSE;
+		} else {
+			return FeatureMatrix.Layout.OFF_HEAP;
 		}
-		return predictionBuffer.toColumn();
 	}
 
-	private static float[] createFeatureMatrix(Table table) throws ConversionException {
-		List<Column> potentialFeatures = table.select()
-				.withoutMetaData(ColumnRole.class)
-				.columns();
+	/**
+	 * Creates a dense feature matrix in native memory. The rows are converted in blocks of bounded size using a
+	 * temporary on-heap buffer. Thus, the size of the matrix is not limited by the maximum Java array size.
+	 */
+	private static FeatureMatrix createOffHeapFeatureMatrix(Table table, FeatureEncoding encoding, Context context) {
+		TiledFeatureWriter writer = new TiledFeatureWriter(encoding, encoding.columns(table));
+		int width = writer.width();
+		int height = table.height();
 
-		if (potentialFeatures.isEmpty()) {
-			throw new IllegalArgumentException("Data table does not contain any feature");
-		}
+		int blockHeight = Math.max(1, Math.min(height, BLOCK_SIZE / Math.max(1, width)));
+		float[] block = new float[blockHeight * width];
+		int parallelism = getConversionParallelism(block.length, blockHeight, context);
+		BigDenseMatrix matrix = new BigDenseMatrix(height, width);
+		try {
+			for (int start = 0; start < height; start += blockHeight) {
+				int rows = Math.min(blockHeight, height - start);
 
-		List<Column> numericFeatures = new ArrayList<>();
-		List<Column> categoricalFeatures = new ArrayList<>();
-		long encodedFeatures = 0;
+				List<int[]> ranges = splitRows(rows, parallelism);
+				List<Runnable> conversions = new ArrayList<>(ranges.size());
+				int blockStart = start;
+				for (int[] range : ranges) {
+					conversions.add(() -> writer.write(blockStart + range[0], blockStart + range[1], block,
+							range[0] * width));
+				}
+				convertInParallel(conversions, ranges.size(), context);
 
-		for (Column column : potentialFeatures) {
-			switch (column.type().category()) {
-				case NUMERIC:
-					numericFeatures.add(column);
-					encodedFeatures++;
-					break;
-				case CATEGORICAL:
-					categoricalFeatures.add(column);
-					Dictionary dictionary = column.getDictionary();
-					encodedFeatures += Columns.isAtMostBicategorical(column) ? 1 : dictionary.size();
-					break;
-				default:
-					// Ignore unsupported columns.
-					break;
+				long address = (long) start * width;
+				for (int i = 0; i < rows * width; i++) {
+					matrix.set(address + i, block[i]);
+				}
 			}
+		} catch (RuntimeException e) {
+			matrix.dispose();
+			throw e;
 		}
 
-		// Conservative estimate of the maximum supported array size (see OpenJDK's ArraysSupport).
-		if (encodedFeatures * table.height() > Integer.MAX_VALUE - 8) {
-			throw new ConversionException("Size of encoded data set exceeds runtime limit");
+		return new FeatureMatrix.OffHeap(matrix);
+	}
+
+	/**
+	 * Creates a feature matrix in compressed sparse row (CSR) format. The columns are read twice: the first pass counts
+	 * the non-missing entries per row, the second pass writes the entries to their final position. Thus, no dense
+	 * intermediate representation is required. Both passes process disjoint row ranges in parallel.
+	 */
+	private static FeatureMatrix createSparseFeatureMatrix(Table table, FeatureEncoding encoding, Context context) {
+		List<Column> columns = encoding.columns(table);
+		int height = table.height();
+		long sourceCells = (long) columns.size() * height;
+		List<int[]> ranges = splitRows(height, getConversionParallelism(sourceCells, height, context));
+
+		// Count entries per row (stored with an offset of one to allow for an in-place prefix sum).
+		long[] rowHeaders = new long[height + 1];
+		List<Runnable> counters = new ArrayList<>(ranges.size());
+		for (int[] range : ranges) {
+			counters.add(() -> countSparseEntries(columns, encoding, range[0], range[1], rowHeaders));
+		}
+		convertInParallel(counters, ranges.size(), context);
+		for (int row = 1; row <= height; row++) {
+			rowHeaders[row] += rowHeaders[row - 1];
 		}
 
-		int width = (int) encodedFeatures;
-		float[] features = new float[width * table.height()];
-		Arrays.fill(features, Float.NaN);
-		int x = 0;
+		int entries = (int) rowHeaders[height];
+		int[] columnIndices = new int[entries];
+		float[] values = new float[entries];
+		List<Runnable> writers = new ArrayList<>(ranges.size());
+		for (int[] range : ranges) {
+			writers.add(() -> writeSparseEntries(columns, encoding, range[0], range[1], rowHeaders, columnIndices,
+					values));
+		}
+		convertInParallel(writers, ranges.size(), context);
+
+		return new FeatureMatrix.Sparse(rowHeaders, columnIndices, values, (int) encoding.width());
+	}
+
+	private static void countSparseEntries(List<Column> columns, FeatureEncoding encoding, int from, int to,
+										   long[] rowHeaders) {
+		for (int i = 0; i < columns.size(); i++) {
+			if (encoding.kind(i) == FeatureEncoding.Kind.NUMERIC) {
+				NumericReader reader = Readers.numericReader(columns.get(i));
+				reader.setPosition(from - 1);
+				for (int row = from + 1; row <= to; row++) {
+					float value = (float) reader.read();
+					if (!Float.isNaN(value) && value != 0) {
+						rowHeaders[row]++;
+					}
+				}
+			} else {
+				// Index encoded columns have the same non-missing entries as one-hot encoded columns.
+				boolean bicategorical = encoding.kind(i) == FeatureEncoding.Kind.BICATEGORICAL;
+				int positive = encoding.positive(i);
+				int[] indexMap = encoding.indexMap(i);
+				CategoricalReader reader = Readers.categoricalReader(columns.get(i));
+				reader.setPosition(from - 1);
+				for (int row = from + 1; row <= to; row++) {
+					int index = reader.read();
+					// The negative class of bicategorical columns is encoded as zero, i.e., as missing value.
+					if (bicategorical ? index == positive : index > 0 && indexMap[index] >= 0) {
+						rowHeaders[row]++;
+					}
+				}
+			}
+		}
+	}
 
-		for (Column column : numericFeatures) {
-			readNumericColumn(column, features, x, width);
-			x++;
+	private static void writeSparseEntries(List<Column> columns, FeatureEncoding encoding, int from, int to,
+										   long[] rowHeaders, int[] columnIndices, float[] values) {
+		int[] cursors = new int[to - from];
+		for (int row = from; row < to; row++) {
+			cursors[row - from] = (int) rowHeaders[row];
 		}
 
-		for (Column column : categoricalFeatures) {
-			if (Columns.isAtMostBicategorical(column)) {
-				readBicategoricalColumn(column, features, x, width);
-				x++;
+		// Columns are written in ascending order of their encoded position, keeping the indices of each row sorted.
+		for (int i = 0; i < columns.size(); i++) {
+			int x = encoding.offset(i);
+			if (encoding.kind(i) == FeatureEncoding.Kind.NUMERIC) {
+				NumericReader reader = Readers.numericReader(columns.get(i));
+				reader.setPosition(from - 1);
+				for (int row = 0; row < cursors.length; row++) {
+					float value = (float) reader.read();
+					if (!Float.isNaN(value) && value != 0) {
+						int cursor = cursors[row]++;
+						columnIndices[cursor] = x;
+						values[cursor] = value;
+					}
+				}
 			} else {
-				Dictionary dictionary = column.getDictionary();
-				readCategoricalColumn(column, features, x, width);
-				x += dictionary.size();
+				boolean bicategorical = encoding.kind(i) == FeatureEncoding.Kind.BICATEGORICAL;
+				boolean indexed = encoding.kind(i) == FeatureEncoding.Kind.INDEX;
+				int positive = encoding.positive(i);
+				int[] indexMap = encoding.indexMap(i);
+				CategoricalReader reader = Readers.categoricalReader(columns.get(i));
+				reader.setPosition(from - 1);
+				for (int row = 0; row < cursors.length; row++) {
+					int index = reader.read();
+					if (bicategorical ? index == positive : index > 0 && indexMap[index] >= 0) {
+						int cursor = cursors[row]++;
+						if (indexed) {
+							columnIndices[cursor] = x;
+							values[cursor] = indexMap[index] + 1;
+						} else {
+							columnIndices[cursor] = bicategorical ? x : x + indexMap[index];
+							values[cursor] = 1;
+						}
+					}
+				}
 			}
 		}
+	}
+
+	/**
+	 * Returns the number of threads to use for converting the given number of cells: conversions below {@link
+	 * #PARALLEL_CONVERSION_THRESHOLD} run on the calling thread, larger conversions use the full parallelism of the
+	 * given context.
+	 */
+	private static int getConversionParallelism(long cells, int units, Context context) {
+		if (cells < PARALLEL_CONVERSION_THRESHOLD) {
+			return 1;
+		}
+		return Math.max(1, Math.min(context.getParallelism(), units));
+	}
+
+	/**
+	 * Splits the given number of rows into the given number of consecutive ranges of (almost) equal size.
+	 */
+	private static List<int[]> splitRows(int height, int parts) {
+		List<int[]> ranges = new ArrayList<>(parts);
+		for (int i = 0; i < parts; i++) {
+			ranges.add(new int[]{(int) ((long) height * i / parts), (int) ((long) height * (i + 1) / parts)});
+		}
+		return ranges;
+	}
+
+	/**
+	 * Runs the given conversions using the given number of threads. The conversions are distributed round-robin and
+	 * must not write to overlapping regions of memory.
+	 */
+	private static void convertInParallel(List<Runnable> conversions, int parallelism, Context context) {
+		if (parallelism <= 1 || conversions.size() <= 1) {
+			conversions.forEach(Runnable::run);
+			return;
+		}
+
+		int threads = Math.min(parallelism, conversions.size());
+		List<Callable<Void>> tasks = new ArrayList<>(threads);
+		for (int thread = 0; thread < threads; thread++) {
+			int first = thread;
+			tasks.add(() -> {
+				for (int i = first; i < conversions.size(); i += threads) {
+					conversions.get(i).run();
+				}
+				return null;
+			});
+		}
 
-		return features;
+		try {
+			context.call(tasks);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			} else {
+				throw new IllegalStateException(cause);
+			}
+		}
 	}
 
-	private static Map<String, float[]> createTrainingMatrices(Table table) throws ConversionException {
+	private static Map<String, float[]> createTrainingMatrices(Table table, Context context) {
 		Map<String, float[]> matrix = new HashMap<>();
-		matrix.put("features", createFeatureMatrix(table));
+		List<Runnable> conversions = new ArrayList<>(2);
 
 		List<Column> weightColumns = table.select().withMetaData(ColumnRole.WEIGHT).columns();
 		if (!weightColumns.isEmpty()) {
 			float[] weights = new float[table.height()];
-			readNumericColumn(weightColumns.get(0), weights, 0, 1);
+			conversions.add(() -> readNumericColumn(weightColumns.get(0), weights, 0, 1));
 			matrix.put("weights", weights);
 		}
 
@@ -364,30 +1796,38 @@ public class XGBoostWrapper {
 
 		switch (labelColumn.type().category()) {
 			case NUMERIC:
-				readNumericColumn(labelColumn, label, 0, 1);
+				conversions.add(() -> readNumericColumn(labelColumn, label, 0, 1));
 				break;
 			case CATEGORICAL:
 				if (Columns.isAtMostBicategorical(labelColumn)) {
-					readBicategoricalColumn(labelColumn, label, 0, 1);
+					conversions.add(() -> readBicategoricalColumn(labelColumn, label, 0, 1));
 				} else {
-					readNumericColumn(labelColumn, label, 0, 1);
-					for (int i = 0; i < label.length; i++) {
-						label[i] -= 1;
-					}
+					conversions.add(() -> {
+						readNumericColumn(labelColumn, label, 0, 1);
+						for (int i = 0; i < label.length; i++) {
+							label[i] -= 1;
+						}
+					});
 				}
 				break;
 			default:
 				throw new IllegalArgumentException("Unsupported label column");
 		}
 
+		convertInParallel(conversions, getConversionParallelism((long) conversions.size() * table.height(),
+				conversions.size(), context), context);
+
 		matrix.put("label", label);
 		return matrix;
 	}
 
 	private static void readNumericColumn(Column column, float[] destination, int offset, int step) {
-		NumericReader reader = Readers.numericReader(column);
+		readNumericColumn(Readers.numericReader(column), column.size(), destination, offset, step);
+	}
+
+	private static void readNumericColumn(NumericReader reader, int rows, float[] destination, int offset, int step) {
 		int i = offset;
-		while (reader.hasRemaining()) {
+		for (int row = 0; row < rows; row++) {
 			float value = (float) reader.read();
 			destination[i] = value;
 			i += step;
@@ -396,16 +1836,14 @@ public class XGBoostWrapper {
 
 	private static void readBicategoricalColumn(Column column, float[] destination, int offset, int step) {
 		Dictionary dictionary = column.getDictionary();
-		int negative = dictionary.isBoolean() ?
-				dictionary.getNegativeIndex() :
-				IntStream.range(1, dictionary.maximalIndex())
-						.filter(i -> dictionary.get(i) != null)
-						.findFirst().orElse(-1);
-		int positive = dictionary.isBoolean() ? dictionary.getPositiveIndex() : dictionary.maximalIndex();
+		readBicategoricalColumn(Readers.categoricalReader(column), column.size(), getNegativeIndex(dictionary),
+				getPositiveIndex(dictionary), destination, offset, step);
+	}
 
-		CategoricalReader reader = Readers.categoricalReader(column);
+	private static void readBicategoricalColumn(CategoricalReader reader, int rows, int negative, int positive,
+												float[] destination, int offset, int step) {
 		int i = offset;
-		while (reader.hasRemaining()) {
+		for (int row = 0; row < rows; row++) {
 			int index = reader.read();
 			if (index == negative) {
 				destination[i] = 0;
@@ -416,13 +1854,56 @@ public class XGBoostWrapper {
 		}
 	}
 
-	private static void readCategoricalColumn(Column column, float[] destination, int offset, int step) {
-		Dictionary dictionary = column.getDictionary();
-		if (dictionary.size() == 0) {
-			// Nothing to do
-			return;
+	private static void readCategoricalColumn(CategoricalReader reader, int rows, int[] indexMap,
+											  float[] destination, int offset, int step) {
+		int i = offset;
+		for (int row = 0; row < rows; row++) {
+			int index = reader.read();
+			// Categories unknown to the encoding plan are mapped to negative positions.
+			if (index > 0 && indexMap[index] >= 0) {
+				destination[i + indexMap[index]] = 1;
+			}
+			i += step;
+		}
+	}
+
+	private static void readIndexColumn(CategoricalReader reader, int rows, int[] indexMap, float[] destination,
+										int offset, int step) {
+		int i = offset;
+		for (int row = 0; row < rows; row++) {
+			int index = reader.read();
+			// Positions start at one since zeros mark missing values.
+			if (index > 0 && indexMap[index] >= 0) {
+				destination[i] = indexMap[index] + 1;
+			}
+			i += step;
 		}
+	}
+
+	/**
+	 * Returns the index of the class encoded as {@code 0} in bicategorical columns: the negative index of boolean
+	 * dictionaries or the lowest used index otherwise ({@code -1} if there is no such class).
+	 */
+	static int getNegativeIndex(Dictionary dictionary) {
+		return dictionary.isBoolean() ?
+				dictionary.getNegativeIndex() :
+				IntStream.range(1, dictionary.maximalIndex())
+						.filter(i -> dictionary.get(i) != null)
+						.findFirst().orElse(-1);
+	}
+
+	/**
+	 * Returns the index of the class encoded as {@code 1} in bicategorical columns: the positive index of boolean
+	 * dictionaries or the highest used index otherwise.
+	 */
+	static int getPositiveIndex(Dictionary dictionary) {
+		return dictionary.isBoolean() ? dictionary.getPositiveIndex() : dictionary.maximalIndex();
+	}
 
+	/**
+	 * Maps the category indices of the given dictionary to consecutive one-hot positions starting at {@code 0}.
+	 */
+	static int[] createIndexMap(Dictionary dictionary) {
 		int[] indexMap = new int[dictionary.maximalIndex() + 1];
 		int counter = 0;
 		for (int i = 1; i <= dictionary.maximalIndex(); i++) {
@@ -431,16 +1912,7 @@ public class XGBoostWrapper {
 				counter++;
 			}
 		}
-
-		CategoricalReader reader = Readers.categoricalReader(column);
-		int i = offset;
-		while (reader.hasRemaining()) {
-			int index = reader.read();
-			if (index > 0) {
-				destination[i + indexMap[index]] = 1;
-			}
-			i += step;
-		}
+		return indexMap;
 	}
 
 }
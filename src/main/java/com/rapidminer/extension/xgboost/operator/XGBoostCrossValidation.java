@@ -0,0 +1,128 @@
+/*
+ * RapidMiner GmbH
+ *
+ * Copyright (C) 2021-2021 by RapidMiner GmbH and the contributors
+ *
+ * Complete list of developers available at our web site:
+ *
+ *      www.rapidminer.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package com.rapidminer.extension.xgboost.operator;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.rapidminer.adaption.belt.IOTable;
+import com.rapidminer.belt.execution.Context;
+import com.rapidminer.extension.xgboost.model.ConversionException;
+import com.rapidminer.extension.xgboost.model.CrossValidation;
+import com.rapidminer.extension.xgboost.model.XGBoostWrapper;
+import com.rapidminer.operator.IOTableModel;
+import com.rapidminer.operator.OperatorDescription;
+import com.rapidminer.operator.OperatorException;
+import com.rapidminer.operator.UserError;
+import com.rapidminer.operator.ports.InputPort;
+import com.rapidminer.operator.ports.OutputPort;
+import com.rapidminer.operator.ports.metadata.GenerateNewMDRule;
+import com.rapidminer.parameter.ParameterType;
+import com.rapidminer.parameter.ParameterTypeInt;
+import com.rapidminer.tools.RandomGenerator;
+import com.rapidminer.tools.belt.BeltTools;
+
+import ml.dmlc.xgboost4j.java.XGBoostError;
+
+
+/**
+ * Cross-validates the XGBoost learner. Other than RapidMiner's generic cross-validation, this operator encodes the
+ * training data only once and slices the fold matrices from the encoded data (see {@link
+ * XGBoostWrapper#crossValidate}). The operator delivers the evaluation metrics per fold and a model trained on all
+ * rows. It exposes the same hyper-parameters as the {@link XGBoostLearner}, except for early stopping, warm starts,
+ * checkpointing, external memory and the deduplication of rows.
+ *
+ * @author Michael Knopf
+ */
+public class XGBoostCrossValidation extends XGBoostLearner {
+
+	private static final String PARAMETER_FOLDS = "number_of_folds";
+
+	/** Learner parameters that are not supported by the cross-validation. */
+	private static final Set<String> UNSUPPORTED_PARAMETERS = new HashSet<>(Arrays.asList(
+			PARAMETER_EARLY_STOPPING,
+			PARAMETER_EARLY_STOPPING_ROUNDS,
+			PARAMETER_CHECKPOINT_DIRECTORY,
+			PARAMETER_CHECKPOINT_ROUNDS,
+			PARAMETER_CHECKPOINT_SECONDS,
+			PARAMETER_RESUME,
+			PARAMETER_EXTERNAL_MEMORY,
+			PARAMETER_CACHE_DIRECTORY,
+			PARAMETER_PAGE_SIZE,
+			PARAMETER_DEDUPLICATE_ROWS
+	));
+
+	private final OutputPort foldMetrics = getOutputPorts().createPort("fold metrics");
+
+	public XGBoostCrossValidation(OperatorDescription description) {
+		super(description);
+		// Warm starts are not supported.
+		getInputPorts().removePort(getInputPorts().getPortByName("initial model"));
+		getTransformer().addRule(new GenerateNewMDRule(foldMetrics, IOTable.class));
+	}
+
+	@Override
+	public IOTableModel learn(IOTable trainingTable) throws OperatorException {
+		Context context = BeltTools.getContext(this);
+		Map<String, String> parameters = compileModelParameters();
+		long seed = RandomGenerator.getRandomGenerator(this).nextLong();
+
+		try {
+			CrossValidation.Result result = XGBoostWrapper.crossValidate(trainingTable.getTable(), parameters,
+					getParameterAsInt(PARAMETER_ROUNDS), getParameterAsInt(PARAMETER_FOLDS), seed, context::isActive,
+					context);
+			// Check whether the cross-validation was aborted.
+			checkForStop();
+			foldMetrics.deliver(new IOTable(result.getFoldMetrics()));
+			return result.getModel();
+		} catch (IllegalArgumentException e) {
+			throw new UserError(this, e, "xgboost.cross_validation_error", e.getMessage());
+		} catch (ConversionException e) {
+			throw new UserError(null, e, "xgboost.conversion_error", e.getMessage());
+		} catch (XGBoostError e) {
+			throw new UserError(null, e, "xgboost.generic_error", e.getMessage());
+		}
+	}
+
+	@Override
+	protected boolean isMetaParameter(String key) {
+		return PARAMETER_FOLDS.equals(key) || super.isMetaParameter(key);
+	}
+
+	@Override
+	public List<ParameterType> getParameterTypes() {
+		List<ParameterType> types = super.getParameterTypes();
+		types.removeIf(type -> UNSUPPORTED_PARAMETERS.contains(type.getKey()));
+		int rounds = 0;
+		while (!PARAMETER_ROUNDS.equals(types.get(rounds).getKey())) {
+			rounds++;
+		}
+		types.add(rounds + 1, new ParameterTypeInt(PARAMETER_FOLDS, "The number of folds.", 2, Integer.MAX_VALUE,
+				10, false));
+		return types;
+	}
+
+}
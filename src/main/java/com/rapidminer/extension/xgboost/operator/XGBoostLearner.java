@@ -31,33 +31,43 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.IntConsumer;
 
 import com.rapidminer.adaption.belt.IOTable;
 import com.rapidminer.belt.execution.Context;
 import com.rapidminer.belt.table.Table;
 import com.rapidminer.belt.table.Tables;
 import com.rapidminer.example.AttributeWeights;
-import com.rapidminer.example.set.TableSplitter;
+import com.rapidminer.extension.xgboost.model.Checkpointing;
 import com.rapidminer.extension.xgboost.model.ConversionException;
+import com.rapidminer.extension.xgboost.model.CrossValidation;
+import com.rapidminer.extension.xgboost.model.ExternalMemory;
 import com.rapidminer.extension.xgboost.model.XGBoostModel;
 import com.rapidminer.extension.xgboost.model.XGBoostWrapper;
 import com.rapidminer.operator.IOTableModel;
 import com.rapidminer.operator.Operator;
 import com.rapidminer.operator.OperatorDescription;
 import com.rapidminer.operator.OperatorException;
+import com.rapidminer.operator.OperatorProgress;
+import com.rapidminer.operator.ProcessStoppedException;
 import com.rapidminer.operator.TableCapability;
 import com.rapidminer.operator.UserError;
 import com.rapidminer.operator.learner.AbstractIOTableLearner;
 import com.rapidminer.operator.ports.InputPort;
+import com.rapidminer.operator.ports.metadata.MetaData;
+import com.rapidminer.operator.ports.metadata.SimplePrecondition;
 import com.rapidminer.operator.ports.metadata.table.TablePrecondition;
 import com.rapidminer.parameter.ParameterType;
+import com.rapidminer.parameter.ParameterTypeBoolean;
 import com.rapidminer.parameter.ParameterTypeCategory;
+import com.rapidminer.parameter.ParameterTypeDirectory;
 import com.rapidminer.parameter.ParameterTypeDouble;
 import com.rapidminer.parameter.ParameterTypeEnumeration;
 import com.rapidminer.parameter.ParameterTypeInt;
 import com.rapidminer.parameter.ParameterTypeString;
 import com.rapidminer.parameter.ParameterTypeTupel;
 import com.rapidminer.parameter.UndefinedParameterError;
+import com.rapidminer.parameter.conditions.BooleanParameterCondition;
 import com.rapidminer.parameter.conditions.EqualStringCondition;
 import com.rapidminer.parameter.conditions.NonEqualStringCondition;
 import com.rapidminer.parameter.conditions.ParameterCondition;
@@ -80,17 +90,46 @@ import static com.rapidminer.operator.TableCapability.*;
  */
 public class XGBoostLearner extends AbstractIOTableLearner {
 
-	private static final String PARAMETER_ROUNDS = "rounds";
-	private static final String PARAMETER_EARLY_STOPPING = "early_stopping";
-	private static final String PARAMETER_EARLY_STOPPING_ROUNDS = "early_stopping_rounds";
+	protected static final String PARAMETER_ROUNDS = "rounds";
+	protected static final String PARAMETER_EARLY_STOPPING = "early_stopping";
+	protected static final String PARAMETER_EARLY_STOPPING_ROUNDS = "early_stopping_rounds";
 	private static final String PARAMETER_EXPERT = "expert_parameters";
+	protected static final String PARAMETER_CHECKPOINT_DIRECTORY = "checkpoint_directory";
+	protected static final String PARAMETER_CHECKPOINT_ROUNDS = "checkpoint_rounds";
+	protected static final String PARAMETER_CHECKPOINT_SECONDS = "checkpoint_seconds";
+	protected static final String PARAMETER_RESUME = "resume_from_checkpoint";
+	protected static final String PARAMETER_EXTERNAL_MEMORY = "external_memory";
+	protected static final String PARAMETER_CACHE_DIRECTORY = "cache_directory";
+	protected static final String PARAMETER_PAGE_SIZE = "page_size";
+	protected static final String PARAMETER_DEDUPLICATE_ROWS = "deduplicate_rows";
+	private static final String PARAMETER_NOMINAL_ENCODING = "nominal_encoding";
+	private static final String PARAMETER_FEATURE_HASHING = "feature_hashing";
+	private static final String PARAMETER_HASHING_THRESHOLD = "hashing_threshold";
+	private static final String PARAMETER_HASHING_BUCKETS = "hashing_buckets";
+	private static final String PARAMETER_JAVA_SCORING = "java_scoring";
+
+	/** Share of the training data used for training (rather than validation) if early stopping is set to auto. */
+	private static final double HOLDOUT_TRAINING_RATIO = 0.7;
 
 	/** Parameters that do not correspond to a named XGBoost hyper-parameter. */
 	private static final Set<String> META_PARAMETERS = new HashSet<>(Arrays.asList(
 			PARAMETER_ROUNDS,
 			PARAMETER_EARLY_STOPPING,
 			PARAMETER_EARLY_STOPPING_ROUNDS,
-			PARAMETER_EXPERT
+			PARAMETER_EXPERT,
+			PARAMETER_CHECKPOINT_DIRECTORY,
+			PARAMETER_CHECKPOINT_ROUNDS,
+			PARAMETER_CHECKPOINT_SECONDS,
+			PARAMETER_RESUME,
+			PARAMETER_EXTERNAL_MEMORY,
+			PARAMETER_CACHE_DIRECTORY,
+			PARAMETER_PAGE_SIZE,
+			PARAMETER_DEDUPLICATE_ROWS,
+			PARAMETER_NOMINAL_ENCODING,
+			PARAMETER_FEATURE_HASHING,
+			PARAMETER_HASHING_THRESHOLD,
+			PARAMETER_HASHING_BUCKETS,
+			PARAMETER_JAVA_SCORING
 	));
 
 	private static final EnumSet<TableCapability> CAPABILITIES = EnumSet.of(
@@ -125,10 +164,13 @@ public class XGBoostLearner extends AbstractIOTableLearner {
 	}
 
 	private InputPort validationSet;
+	private final InputPort initialModel;
 
 	public XGBoostLearner(OperatorDescription description) {
 		super(description);
 		this.validationSet = null;
+		this.initialModel = getInputPorts().createPort("initial model");
+		this.initialModel.addPrecondition(new SimplePrecondition(initialModel, new MetaData(XGBoostModel.class), false));
 		getParameters().addObserver((observable, parameter) -> {
 			if (PARAMETER_EARLY_STOPPING.equals(parameter)) {
 				checkValidationPort();
@@ -180,13 +222,14 @@ public class XGBoostLearner extends AbstractIOTableLearner {
 
 		Table data = trainingTable.getTable();
 		Table validationData;
+		boolean holdout = false;
 		int earlyStoppingRounds;
 
 		switch (getParameterAsString(PARAMETER_EARLY_STOPPING)) {
 			case "auto":
-				TableSplitter splitter = new TableSplitter(data, 0.7, TableSplitter.AUTOMATIC, false, 0);
-				data = splitter.selectSingleSubset(0, context);
-				validationData = splitter.selectSingleSubset(1, context);
+				// The wrapper holds out the validation rows, the data is encoded only once.
+				validationData = null;
+				holdout = true;
 				earlyStoppingRounds = getParameterAsInt(PARAMETER_EARLY_STOPPING_ROUNDS);
 				break;
 			case "custom":
@@ -213,12 +256,59 @@ public class XGBoostLearner extends AbstractIOTableLearner {
 				break;
 		}
 
+		// Continue the boosting of the initial model, if given.
+		XGBoostModel initial = initialModel.getDataOrNull(XGBoostModel.class);
+		if (initial != null) {
+			try {
+				XGBoostWrapper.requireCompatible(data, initial);
+			} catch (IllegalArgumentException e) {
+				throw new UserError(this, e, "xgboost.incompatible_initial_model", e.getMessage());
+			}
+		}
+
+		Checkpointing checkpointing = null;
+		if (isParameterSet(PARAMETER_CHECKPOINT_DIRECTORY)) {
+			checkpointing = new Checkpointing(getParameterAsFile(PARAMETER_CHECKPOINT_DIRECTORY, true).toPath(),
+					getParameterAsInt(PARAMETER_CHECKPOINT_ROUNDS), getParameterAsInt(PARAMETER_CHECKPOINT_SECONDS),
+					getParameterAsBoolean(PARAMETER_RESUME));
+		}
+
+		ExternalMemory externalMemory = null;
+		if (getParameterAsBoolean(PARAMETER_EXTERNAL_MEMORY)) {
+			externalMemory = new ExternalMemory(isParameterSet(PARAMETER_CACHE_DIRECTORY)
+					? getParameterAsFile(PARAMETER_CACHE_DIRECTORY, true).toPath() : null,
+					getParameterAsInt(PARAMETER_PAGE_SIZE));
+		}
+
+		int rounds = getParameterAsInt(PARAMETER_ROUNDS);
+		OperatorProgress progress = getProgress();
+		progress.setTotal(rounds);
+		// Stops are handled by the sentinel, the progress is updated from within the boosting loop.
+		progress.setCheckForStop(false);
+		IntConsumer listener = completed -> {
+			try {
+				progress.setCompleted(completed);
+			} catch (ProcessStoppedException e) {
+				// Cannot happen, stop checks are disabled.
+			}
+		};
+
+		Map<String, String> parameters = compileModelParameters();
+		// Drawn after the XGBoost seed, i.e., the seed does not depend on the early stopping mode.
+		long holdoutSeed = holdout ? RandomGenerator.getRandomGenerator(this).nextLong() : 0;
+
 		try {
-			IOTableModel model =  XGBoostWrapper.train(data, validationData, compileModelParameters(),
-					getParameterAsInt(PARAMETER_ROUNDS), earlyStoppingRounds, context::isActive);
+			IOTableModel model = holdout
+					? XGBoostWrapper.trainWithHoldout(data, HOLDOUT_TRAINING_RATIO, holdoutSeed, parameters, rounds,
+					earlyStoppingRounds, context::isActive, context, initial, checkpointing, listener, externalMemory)
+					: XGBoostWrapper.train(data, validationData, parameters, rounds, earlyStoppingRounds,
+					context::isActive, context, initial, checkpointing, listener, externalMemory);
 			// Check whether the training was aborted.
 			checkForStop();
+			progress.complete();
 			return model;
+		} catch (CrossValidation.SplitException e) {
+			throw new UserError(this, e, "xgboost.holdout_error", e.getMessage());
 		} catch (ConversionException e) {
 			throw new UserError(null, e, "xgboost.conversion_error", e.getMessage());
 		} catch (XGBoostError e) {
@@ -236,29 +326,51 @@ public class XGBoostLearner extends AbstractIOTableLearner {
 		}
 	}
 
-	private Map<String, String> compileModelParameters() throws UndefinedParameterError {
+	/**
+	 * @return whether the given parameter does not correspond to a named XGBoost hyper-parameter
+	 */
+	protected boolean isMetaParameter(String key) {
+		return META_PARAMETERS.contains(key);
+	}
+
+	/**
+	 * Compiles the XGBoost hyper-parameters from the operator parameters.
+	 */
+	protected Map<String, String> compileModelParameters() throws UndefinedParameterError {
 		Map<String, String> parameters = new HashMap<>();
 
 		// Only include visible parameters.
 		for (ParameterType type: getParameters().getParameterTypes()) {
 			if (!type.isHidden()) {
 				String key = type.getKey();
-				if (!META_PARAMETERS.contains(key) && isParameterSet(key)) {
+				if (!isMetaParameter(key) && isParameterSet(key)) {
 					String value = getParameterAsString(type.getKey());
 					parameters.put(type.getKey(), PARAMETER_ALIASES.getOrDefault(value, value));
 				}
 			}
 		}
 
-		// The XGBoost methods are synchronized, thus pass on the parallelism level to the algorithm.
-		parameters.put("nthread", Integer.toString(BeltTools.getContext(this).getParallelism()));
-
 		// Silent operation:
 		parameters.put("verbosity", "0");
 
 		// Derive random seed from process random generator:
 		parameters.put("seed", Integer.toUnsignedString(RandomGenerator.getRandomGenerator(this).nextInt()));
 
+		// Encoding and training options are passed along with the XGBoost parameters:
+		if (getParameterAsBoolean(PARAMETER_DEDUPLICATE_ROWS)) {
+			parameters.put(XGBoostWrapper.DEDUPLICATE_ROWS, Boolean.TRUE.toString());
+		}
+		if (getParameterAsInt(PARAMETER_NOMINAL_ENCODING) == 1) {
+			parameters.put(XGBoostWrapper.CATEGORICAL_ENCODING, XGBoostWrapper.INDEX_ENCODING);
+		}
+		if (getParameterAsBoolean(PARAMETER_FEATURE_HASHING)) {
+			parameters.put(XGBoostWrapper.HASHING_THRESHOLD, getParameterAsString(PARAMETER_HASHING_THRESHOLD));
+			parameters.put(XGBoostWrapper.HASHING_BUCKETS, getParameterAsString(PARAMETER_HASHING_BUCKETS));
+		}
+		if (getParameterAsBoolean(PARAMETER_JAVA_SCORING)) {
+			parameters.put(XGBoostWrapper.JAVA_SCORING, Boolean.TRUE.toString());
+		}
+
 		// Add expert parameters last to allow overriding defaults chosen above.
 		for (String parameter: ParameterTypeEnumeration.transformString2Enumeration(
 				getParameterAsString(PARAMETER_EXPERT))) {
@@ -397,6 +509,80 @@ public class XGBoostLearner extends AbstractIOTableLearner {
 				new ParameterTypeString("value", "", "", true));
 		types.add(new ParameterTypeEnumeration(PARAMETER_EXPERT, "", expertParameter, true));
 
+		// Checkpointing
+		type = new ParameterTypeDirectory(PARAMETER_CHECKPOINT_DIRECTORY,
+				"The directory checkpoints of the training are written to. Leave empty to disable checkpointing.",
+				true);
+		type.setExpert(true);
+		types.add(type);
+		// The value of an unset directory is null rather than empty, i.e., the condition must check for unset values.
+		ParameterCondition checkpointing = new NonEqualStringCondition(this, PARAMETER_CHECKPOINT_DIRECTORY, false, "") {
+
+			@Override
+			public boolean isConditionFullfilled() {
+				try {
+					return isParameterSet(PARAMETER_CHECKPOINT_DIRECTORY);
+				} catch (UndefinedParameterError e) {
+					return false;
+				}
+			}
+
+		};
+		group.add(new ParameterTypeInt(PARAMETER_CHECKPOINT_ROUNDS,
+				"The number of boosting rounds between checkpoints (0 to disable).", 0, Integer.MAX_VALUE, 10, true));
+		group.add(new ParameterTypeInt(PARAMETER_CHECKPOINT_SECONDS,
+				"The minimum number of seconds between checkpoints (0 to disable).", 0, Integer.MAX_VALUE, 0, true));
+		group.add(new ParameterTypeBoolean(PARAMETER_RESUME,
+				"If checked, the training resumes from the latest checkpoint for the same parameters and data.",
+				true, true));
+		group.forEach(t -> t.setExpert(true));
+		group.forEach(t -> t.registerDependencyCondition(checkpointing));
+		types.addAll(group);
+		group.clear();
+
+		// External memory
+		types.add(new ParameterTypeBoolean(PARAMETER_EXTERNAL_MEMORY,
+				"If checked, the training data is spilled to disk and XGBoost trains from there. Use this option for "
+						+ "data sets that do not fit into memory.", false, true));
+		type = new ParameterTypeDirectory(PARAMETER_CACHE_DIRECTORY,
+				"The directory the cache files are written to. Leave empty to use the temporary directory.", true);
+		type.setExpert(true);
+		type.registerDependencyCondition(new BooleanParameterCondition(this, PARAMETER_EXTERNAL_MEMORY, false, true));
+		types.add(type);
+		type = new ParameterTypeInt(PARAMETER_PAGE_SIZE, "The number of rows encoded and written to disk at a time.",
+				1, Integer.MAX_VALUE, ExternalMemory.DEFAULT_PAGE_ROWS, true);
+		type.registerDependencyCondition(new BooleanParameterCondition(this, PARAMETER_EXTERNAL_MEMORY, false, true));
+		types.add(type);
+
+		types.add(new ParameterTypeBoolean(PARAMETER_DEDUPLICATE_ROWS,
+				"If checked, identical training rows are merged into a single row weighted by the sum of their "
+						+ "weights before the training. Has no effect with external memory.", false, true));
+
+		// Nominal encoding
+		types.add(new ParameterTypeCategory(PARAMETER_NOMINAL_ENCODING,
+				"The encoding of nominal features with more than two values: one feature per value (one-hot) or a "
+						+ "single feature holding the index of the value (index). Feature hashing only applies to "
+						+ "one-hot encoded features.", new String[]{"one-hot", "index"}, 0, true));
+
+		// Feature hashing
+		types.add(new ParameterTypeBoolean(PARAMETER_FEATURE_HASHING,
+				"If checked, nominal features with many values are hashed into a fixed number of features instead of "
+						+ "being one-hot encoded.", false, true));
+		type = new ParameterTypeInt(PARAMETER_HASHING_THRESHOLD,
+				"Nominal features with more values are hashed, smaller ones are one-hot encoded.", 1,
+				Integer.MAX_VALUE, 1000, true);
+		type.registerDependencyCondition(new BooleanParameterCondition(this, PARAMETER_FEATURE_HASHING, false, true));
+		types.add(type);
+		type = new ParameterTypeInt(PARAMETER_HASHING_BUCKETS, "The number of features per hashed nominal feature.",
+				1, Integer.MAX_VALUE, 1024, true);
+		type.registerDependencyCondition(new BooleanParameterCondition(this, PARAMETER_FEATURE_HASHING, false, true));
+		types.add(type);
+
+		types.add(new ParameterTypeBoolean(PARAMETER_JAVA_SCORING,
+				"If checked, small example sets are scored without calling the native XGBoost library, which is "
+						+ "faster for few rows. The confidences might differ from the native ones in the last digits.",
+				false, true));
+
 		return types;
 	}
 }
@@ -0,0 +1,83 @@
+/*
+ * RapidMiner GmbH
+ *
+ * Copyright (C) 2021-2021 by RapidMiner GmbH and the contributors
+ *
+ * Complete list of developers available at our web site:
+ *
+ *      www.rapidminer.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package com.rapidminer.extension.xgboost.model;
+
+import java.util.Random;
+
+import com.rapidminer.belt.execution.Context;
+import com.rapidminer.belt.execution.SequentialContext;
+import com.rapidminer.belt.table.Builders;
+import com.rapidminer.belt.table.Table;
+import com.rapidminer.belt.table.TableBuilder;
+
+
+/**
+ * Compares the column-wise (strided) and the tiled (row-major) conversion of dense feature matrices for tables of
+ * different widths but with the same number of cells. Not part of the unit tests, run manually via {@link #main}.
+ *
+ * @author Michael Knopf
+ */
+public class FeatureConversionBenchmark {
+
+	private static final Context CTX = new SequentialContext();
+
+	private static final int CELLS = 1 << 24;
+	private static final int[] WIDTHS = {8, 64, 256, 1024, 2048};
+	private static final int WARMUP = 3;
+	private static final int RUNS = 10;
+
+	public static void main(String[] args) {
+		System.out.println("width\theight\tstrided (ms)\ttiled (ms)");
+		for (int width : WIDTHS) {
+			int height = CELLS / width;
+			Table table = createTable(width, height);
+			FeatureEncoding encoding = FeatureEncoding.compile(table);
+
+			double strided = measure(table, encoding, false);
+			double tiled = measure(table, encoding, true);
+			System.out.printf("%d\t%d\t%.1f\t%.1f%n", width, height, strided, tiled);
+		}
+	}
+
+	private static double measure(Table table, FeatureEncoding encoding, boolean tiled) {
+		long total = 0;
+		for (int run = 0; run < WARMUP + RUNS; run++) {
+			long start = System.nanoTime();
+			XGBoostWrapper.createDenseFeatureMatrix(table, encoding, tiled, CTX);
+			if (run >= WARMUP) {
+				total += System.nanoTime() - start;
+			}
+		}
+		return total / (RUNS * 1e6);
+	}
+
+	private static Table createTable(int width, int height) {
+		Random rng = new Random(123456);
+		TableBuilder builder = Builders.newTableBuilder(height);
+		for (int i = 0; i < width; i++) {
+			builder.addReal("A" + i, row -> rng.nextDouble());
+		}
+		return builder.build(CTX);
+	}
+
+}
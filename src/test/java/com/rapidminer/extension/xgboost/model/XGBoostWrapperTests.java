@@ -25,20 +25,36 @@ package com.rapidminer.extension.xgboost.model;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
 
+import org.junit.Assume;
 import org.junit.Test;
 
 import com.rapidminer.adaption.belt.IOTable;
@@ -51,18 +67,52 @@ import com.rapidminer.belt.reader.CategoricalReader;
 import com.rapidminer.belt.reader.Readers;
 import com.rapidminer.belt.table.Builders;
 import com.rapidminer.belt.table.Table;
+import com.rapidminer.belt.table.TableBuilder;
 import com.rapidminer.belt.util.ColumnRole;
 import com.rapidminer.example.AttributeWeights;
 import com.rapidminer.example.set.TableSplitter;
 import com.rapidminer.operator.UserError;
 
+import ml.dmlc.xgboost4j.java.Booster;
+import ml.dmlc.xgboost4j.java.DMatrix;
+import ml.dmlc.xgboost4j.java.XGBoost;
 import ml.dmlc.xgboost4j.java.XGBoostError;
+import ml.dmlc.xgboost4j.java.util.BigDenseMatrix;
 
 
 public class XGBoostWrapperTests {
 
 	private static final Context CTX = new SequentialContext();
 
+	/** Context distributing work across the common fork-join pool. */
+	private static final Context PARALLEL_CTX = new Context() {
+
+		@Override
+		public boolean isActive() {
+			return true;
+		}
+
+		@Override
+		public int getParallelism() {
+			return 4;
+		}
+
+		@Override
+		public <T> List<T> call(List<Callable<T>> callables) throws ExecutionException {
+			List<T> results = new ArrayList<>(callables.size());
+			for (Future<T> future : ForkJoinPool.commonPool().invokeAll(callables)) {
+				try {
+					results.add(future.get());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new ExecutionException(e);
+				}
+			}
+			return results;
+		}
+
+	};
+
 	@Test
 	public void testRegression() throws XGBoostError, IOException {
 		Table data = Builders.newTableBuilder(100)
@@ -83,6 +133,8 @@ public class XGBoostWrapperTests {
 		Column column = XGBoostWrapper.predict(model, data, scores);
 		assertEquals(Column.TypeId.REAL, column.type().id());
 		assertTrue(scores.isEmpty());
+
+		assertEnsembleMatchesNative(model, data);
 	}
 
 	@Test
@@ -136,6 +188,8 @@ public class XGBoostWrapperTests {
 
 		assertTrue(column.getDictionary().isBoolean());
 		assertEquals(new HashSet<>(Arrays.asList("True", "False")), scores.keySet());
+
+		assertEnsembleMatchesNative(model, data);
 	}
 
 	@Test
@@ -189,6 +243,8 @@ public class XGBoostWrapperTests {
 
 		assertFalse(column.getDictionary().isBoolean());
 		assertEquals(new HashSet<>(Arrays.asList("True", "False")), scores.keySet());
+
+		assertEnsembleMatchesNative(model, data);
 	}
 
 	@Test
@@ -215,6 +271,8 @@ public class XGBoostWrapperTests {
 
 		assertFalse(column.getDictionary().isBoolean());
 		assertEquals(new HashSet<>(Arrays.asList(dictionary)), scores.keySet());
+
+		assertEnsembleMatchesNative(model, data);
 	}
 
 	@Test
@@ -252,10 +310,12 @@ public class XGBoostWrapperTests {
 		// We should get four predicted values but scores for all five classes.
 		assertEquals(new HashSet<>(Arrays.asList("One", "Three", "Four", "Five")), predictedValues);
 		assertEquals(new HashSet<>(Arrays.asList(dictionary)), scores.keySet());
+
+		assertEnsembleMatchesNative(model, data);
 	}
 
 	@Test
-	public void testCustomObjective() throws XGBoostError, ConversionException {
+	public void testCustomObjective() throws XGBoostError, IOException {
 		Table data = Builders.newTableBuilder(100)
 				.addReal("A", i -> i)
 				.addReal("B", i -> 2 * i)
@@ -269,6 +329,8 @@ public class XGBoostWrapperTests {
 
 		assertNotNull(model);
 		assertEquals("reg:tweedie", model.getParameters().get("objective"));
+
+		assertEnsembleMatchesNative(model, data);
 	}
 
 	@Test
@@ -367,8 +429,22 @@ public class XGBoostWrapperTests {
 		assertTrue(model.getIterations() < 100);
 	}
 
+	@Test
+	public void testMatrixSizeLimit() throws XGBoostError, ConversionException {
+		// One-hot encoding of features A and B results in more than 2^31 values.
+		Table table = Builders.newTableBuilder(35000)
+				.addNominal("A", String::valueOf)
+				.addNominal("B", String::valueOf)
+				.addReal("Label", i -> i)
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+
+		XGBoostModel model = XGBoostWrapper.train(table, null, Collections.emptyMap(), 10, 0, () -> true);
+		assertNotNull(model);
+	}
+
 	@Test(expected = ConversionException.class)
-	public void testMatrixSizeLimit() throws ConversionException, XGBoostError {
+	public void testDenseMatrixSizeLimit() throws ConversionException {
 		// One-hot encoding of features A and B results in more than 2^31 values.
 		Table table = Builders.newTableBuilder(35000)
 				.addNominal("A", String::valueOf)
@@ -377,7 +453,255 @@ public class XGBoostWrapperTests {
 				.addMetaData("Label", ColumnRole.LABEL)
 				.build(CTX);
 
-		XGBoostWrapper.train(table, null, Collections.emptyMap(), 10, 0, () -> true);
+		XGBoostWrapper.createFeatureMatrix(table, FeatureMatrix.Layout.DENSE, CTX);
+	}
+
+	@Test
+	public void testLayoutSelection() {
+		assertEquals(FeatureMatrix.Layout.DENSE, XGBoostWrapper.selectLayout(3, 3, 100));
+		assertEquals(FeatureMatrix.Layout.SPARSE, XGBoostWrapper.selectLayout(2, 70000, 35000));
+		assertEquals(FeatureMatrix.Layout.OFF_HEAP, XGBoostWrapper.selectLayout(100, 100, 100000));
+		assertEquals(FeatureMatrix.Layout.OFF_HEAP, XGBoostWrapper.selectLayout(3, 3, Integer.MAX_VALUE / 2));
+		assertEquals(FeatureMatrix.Layout.OFF_HEAP, XGBoostWrapper.selectLayout(2, 10, Integer.MAX_VALUE / 2));
+	}
+
+	@Test
+	public void testOffHeapMatchesDense() throws ConversionException {
+		String[] dictionary = {"One", "Two", "Three", "Four", "Five"};
+		Table table = Builders.newTableBuilder(100)
+				.addReal("A", i -> i % 17 == 0 ? Double.NaN : i % 3)
+				.addNominal("B", i -> i % 11 == 0 ? null : dictionary[i % 5])
+				.addBoolean("C", i -> i % 7 == 0 ? null : i % 2 == 0 ? "False" : "True", "True")
+				.addReal("Label", i -> 10 * i)
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+
+		FeatureMatrix.Dense dense = (FeatureMatrix.Dense) XGBoostWrapper.createFeatureMatrix(table,
+				FeatureMatrix.Layout.DENSE, CTX);
+		FeatureMatrix.OffHeap offHeap = (FeatureMatrix.OffHeap) XGBoostWrapper.createFeatureMatrix(table,
+				FeatureMatrix.Layout.OFF_HEAP, CTX);
+		try {
+			assertEquals(dense.height(), offHeap.height());
+			assertEquals(dense.width(), offHeap.width());
+			float[] values = dense.values();
+			for (int i = 0; i < values.length; i++) {
+				assertEquals(values[i], offHeap.matrix().get(i), 0f);
+			}
+		} finally {
+			offHeap.dispose();
+		}
+	}
+
+	@Test
+	public void testOffHeapAcrossBlocks() throws XGBoostError, IOException {
+		// 64 numeric features and 70000 rows exceed the off-heap staging threshold and span five conversion blocks,
+		// the last one being partial.
+		int width = 64;
+		Random rng = new Random(123456);
+		TableBuilder builder = Builders.newTableBuilder(70000);
+		for (int x = 0; x < width; x++) {
+			builder.addReal("F" + x, i -> i % 13 == 0 ? Double.NaN : rng.nextDouble());
+		}
+		Table table = builder.addReal("Label", i -> i % 10)
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+
+		FeatureMatrix automatic = XGBoostWrapper.createFeatureMatrix(table, CTX);
+		FeatureMatrix.Dense dense = (FeatureMatrix.Dense) XGBoostWrapper.createFeatureMatrix(table,
+				FeatureMatrix.Layout.DENSE, CTX);
+		try {
+			assertEquals(FeatureMatrix.Layout.OFF_HEAP, automatic.layout());
+			BigDenseMatrix offHeap = ((FeatureMatrix.OffHeap) automatic).matrix();
+			float[] values = dense.values();
+			for (int i = 0; i < values.length; i++) {
+				assertEquals(values[i], offHeap.get(i), 0f);
+			}
+		} finally {
+			automatic.dispose();
+		}
+
+		// The training converts the table to the off-heap layout as well.
+		XGBoostModel model = XGBoostWrapper.train(table, null, Collections.singletonMap("nthread", "2"), 5, 0,
+				() -> true, CTX);
+		assertNotNull(model);
+		Booster booster = XGBoost.loadModel(model.getBooster());
+		try {
+			float[][] expected = predict(booster, dense);
+			double[] actual = new double[table.height()];
+			XGBoostWrapper.predict(model, table, new HashMap<>()).fill(actual, 0);
+			for (int i = 0; i < expected.length; i++) {
+				assertEquals(expected[i][0], actual[i], 0);
+			}
+		} finally {
+			booster.dispose();
+		}
+	}
+
+	@Test
+	public void testOffHeapBeyondArrayLimit() throws XGBoostError, IOException {
+		// Requires about 20 GB of native memory: the staged matrix and XGBoost's copy of it.
+		Assume.assumeTrue("Large tests are disabled", System.getenv("XGBOOST_LARGE_TESTS") != null);
+
+		// 64 binary features and 34 million rows result in more than 2^31 dense cells.
+		int width = 64;
+		int height = 34_000_000;
+		TableBuilder builder = Builders.newTableBuilder(height);
+		for (int x = 0; x < width; x++) {
+			int feature = x;
+			builder.addBoolean("F" + x, i -> (i >> (feature % 16)) % 2 == 0 ? "no" : "yes", "yes");
+		}
+		Table table = builder.addReal("Label", i -> (i >> 3) % 2)
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+		assertTrue((long) width * height > Integer.MAX_VALUE);
+
+		// The cells beyond the int range are staged at their long address.
+		FeatureMatrix features = XGBoostWrapper.createFeatureMatrix(table, CTX);
+		try {
+			assertEquals(FeatureMatrix.Layout.OFF_HEAP, features.layout());
+			BigDenseMatrix matrix = ((FeatureMatrix.OffHeap) features).matrix();
+			for (int row = height - 1000; row < height; row++) {
+				for (int x = 0; x < width; x++) {
+					float expected = (row >> (x % 16)) % 2 == 0 ? 0 : 1;
+					assertEquals(expected, matrix.get((long) row * width + x), 0f);
+				}
+			}
+		} finally {
+			features.dispose();
+		}
+
+		Map<String, String> parameters = new HashMap<>();
+		parameters.put("tree_method", "hist");
+		parameters.put("max_depth", "4");
+		XGBoostModel model = XGBoostWrapper.train(table, null, parameters, 5, 0, () -> true, CTX);
+		assertNotNull(model);
+
+		// The label equals feature F3, which the model picks up from all rows.
+		Table tail = table.rows(height - 1000, height, CTX);
+		double[] predictions = new double[tail.height()];
+		XGBoostWrapper.predict(model, tail, new HashMap<>()).fill(predictions, 0);
+		for (int i = 0; i < predictions.length; i++) {
+			int row = height - 1000 + i;
+			assertEquals((row >> 3) % 2, predictions[i], 0.25);
+		}
+	}
+
+	@Test
+	public void testLayoutsYieldSamePredictions() throws XGBoostError, IOException {
+		String[] dictionary = {"One", "Two", "Three", "Four", "Five"};
+		Table table = Builders.newTableBuilder(100)
+				.addReal("A", i -> i % 17 == 0 ? Double.NaN : i % 3)
+				.addNominal("B", i -> i % 11 == 0 ? null : dictionary[i % 5])
+				.addBoolean("C", i -> i % 7 == 0 ? null : i % 2 == 0 ? "False" : "True", "True")
+				.addReal("Label", i -> 10 * i)
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+
+		XGBoostModel model = XGBoostWrapper.train(table, null, Collections.emptyMap(), 10, 0, () -> true);
+		assertNotNull(model);
+
+		Booster booster = XGBoost.loadModel(model.getBooster());
+		try {
+			float[][] expected = predict(booster, XGBoostWrapper.createFeatureMatrix(table,
+					FeatureMatrix.Layout.DENSE, CTX));
+			for (FeatureMatrix.Layout layout : Arrays.asList(FeatureMatrix.Layout.SPARSE,
+					FeatureMatrix.Layout.OFF_HEAP)) {
+				float[][] actual = predict(booster, XGBoostWrapper.createFeatureMatrix(table, layout, CTX));
+				for (int i = 0; i < expected.length; i++) {
+					assertArrayEquals(expected[i], actual[i], 0f);
+				}
+			}
+		} finally {
+			booster.dispose();
+		}
+	}
+
+	private static float[][] predict(Booster booster, FeatureMatrix features) throws XGBoostError {
+		DMatrix matrix;
+		try {
+			matrix = features.toDMatrix();
+		} finally {
+			features.dispose();
+		}
+		try {
+			return booster.predict(matrix);
+		} finally {
+			matrix.dispose();
+		}
+	}
+
+	@Test
+	public void testSparseLayoutSelection() throws ConversionException {
+		Table table = Builders.newTableBuilder(1000)
+				.addReal("A", i -> i)
+				.addNominal("B", String::valueOf)
+				.addReal("Label", i -> i)
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+
+		assertEquals(FeatureMatrix.Layout.SPARSE, XGBoostWrapper.createFeatureMatrix(table, CTX).layout());
+		assertEquals(FeatureMatrix.Layout.DENSE, XGBoostWrapper.createFeatureMatrix(
+				table.columns(Arrays.asList("A", "Label")), CTX).layout());
+	}
+
+	@Test
+	public void testSparseMatchesDense() throws ConversionException {
+		String[] dictionary = {"One", "Two", "Three", "Four", "Five"};
+		Table table = Builders.newTableBuilder(100)
+				.addReal("A", i -> i % 17 == 0 ? Double.NaN : i % 3)
+				.addNominal("B", i -> i % 11 == 0 ? null : dictionary[i % 5])
+				.addBoolean("C", i -> i % 7 == 0 ? null : i % 2 == 0 ? "False" : "True", "True")
+				.addNominal("D", i -> i % 2 == 0 ? "X" : "Y")
+				.addNominal("E", i -> null)
+				.addReal("Label", i -> 10 * i)
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+
+		FeatureMatrix.Dense dense = (FeatureMatrix.Dense) XGBoostWrapper.createFeatureMatrix(table,
+				FeatureMatrix.Layout.DENSE, CTX);
+		FeatureMatrix.Sparse sparse = (FeatureMatrix.Sparse) XGBoostWrapper.createFeatureMatrix(table,
+				FeatureMatrix.Layout.SPARSE, CTX);
+		assertEquals(dense.height(), sparse.height());
+		assertEquals(dense.width(), sparse.width());
+
+		// Both NaN and 0 mark missing entries, thus compare the non-missing entries only.
+		float[] expected = dense.values().clone();
+		for (int i = 0; i < expected.length; i++) {
+			if (expected[i] == 0) {
+				expected[i] = Float.NaN;
+			}
+		}
+		float[] actual = new float[expected.length];
+		Arrays.fill(actual, Float.NaN);
+		for (int row = 0; row < sparse.height(); row++) {
+			for (long i = sparse.rowHeaders()[row]; i < sparse.rowHeaders()[row + 1]; i++) {
+				actual[row * sparse.width() + sparse.columnIndices()[(int) i]] = sparse.values()[(int) i];
+			}
+		}
+		assertArrayEquals(expected, actual, 0f);
+	}
+
+	@Test
+	public void testHighCardinalityClassification() throws XGBoostError, IOException {
+		// Feature B is unique per row and thus encoded in sparse format.
+		Random rng = new Random(123456);
+		Table data = Builders.newTableBuilder(1000)
+				.addReal("A", i -> (i % 2) * 5 + rng.nextDouble())
+				.addNominal("B", String::valueOf)
+				.addNominal("Label", i -> i % 2 == 0 ? "False" : "True")
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+
+		XGBoostModel model = XGBoostWrapper.train(data, null, Collections.singletonMap("seed", "123456"),
+				10, 0, () -> true);
+		assertNotNull(model);
+
+		Column column = XGBoostWrapper.predict(model, data, new HashMap<>());
+		String[] label = new String[1000];
+		String[] prediction = new String[1000];
+		data.column("Label").fill(label, 0);
+		column.fill(prediction, 0);
+		assertArrayEquals(label, prediction);
 	}
 
 	@Test(expected = IllegalArgumentException.class)
@@ -466,4 +790,1325 @@ public class XGBoostWrapperTests {
 		assertTrue(weights.getWeight("B") < weights.getWeight("C"));
 	}
 
+	@Test
+	public void testParallelConversion() throws ConversionException {
+		String[] dictionary = {"One", "Two", "Three", "Four", "Five"};
+		Random rng = new Random(123456);
+		Table table = Builders.newTableBuilder(10000)
+				.addReal("A", i -> i % 17 == 0 ? Double.NaN : rng.nextDouble())
+				.addReal("B", i -> i % 3)
+				.addNominal("C", i -> i % 11 == 0 ? null : dictionary[i % 5])
+				.addBoolean("D", i -> i % 7 == 0 ? null : i % 2 == 0 ? "False" : "True", "True")
+				.addNominal("E", i -> String.valueOf(i % 100))
+				.addReal("Label", i -> i)
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+
+		FeatureMatrix.Dense sequentialDense = (FeatureMatrix.Dense) XGBoostWrapper.createFeatureMatrix(table,
+				FeatureMatrix.Layout.DENSE, CTX);
+		FeatureMatrix.Dense parallelDense = (FeatureMatrix.Dense) XGBoostWrapper.createFeatureMatrix(table,
+				FeatureMatrix.Layout.DENSE, PARALLEL_CTX);
+		assertArrayEquals(sequentialDense.values(), parallelDense.values(), 0f);
+
+		FeatureMatrix.Sparse sequentialSparse = (FeatureMatrix.Sparse) XGBoostWrapper.createFeatureMatrix(table,
+				FeatureMatrix.Layout.SPARSE, CTX);
+		FeatureMatrix.Sparse parallelSparse = (FeatureMatrix.Sparse) XGBoostWrapper.createFeatureMatrix(table,
+				FeatureMatrix.Layout.SPARSE, PARALLEL_CTX);
+		assertArrayEquals(sequentialSparse.rowHeaders(), parallelSparse.rowHeaders());
+		assertArrayEquals(sequentialSparse.columnIndices(), parallelSparse.columnIndices());
+		assertArrayEquals(sequentialSparse.values(), parallelSparse.values(), 0f);
+	}
+
+	@Test
+	public void testTiledMatchesStridedConversion() {
+		String[] dictionary = {"One", "Two", "Three", "Four", "Five"};
+		Random rng = new Random(123456);
+		Table table = Builders.newTableBuilder(10000)
+				.addReal("A", i -> i % 17 == 0 ? Double.NaN : rng.nextDouble())
+				.addNominal("B", i -> i % 11 == 0 ? null : dictionary[i % 5])
+				.addBoolean("C", i -> i % 7 == 0 ? null : i % 2 == 0 ? "False" : "True", "True")
+				.addNominal("D", i -> i % 2 == 0 ? "X" : "Y")
+				.addNominal("E", i -> null)
+				.addReal("F", i -> i % 3)
+				.build(CTX);
+
+		FeatureEncoding encoding = FeatureEncoding.compile(table);
+		assertEquals(2 + 5 + 1 + 1 + 1, encoding.width());
+
+		for (Context context : Arrays.asList(CTX, PARALLEL_CTX)) {
+			FeatureMatrix.Dense strided = (FeatureMatrix.Dense) XGBoostWrapper.createDenseFeatureMatrix(table,
+					encoding, false, context);
+			FeatureMatrix.Dense tiled = (FeatureMatrix.Dense) XGBoostWrapper.createDenseFeatureMatrix(table,
+					encoding, true, context);
+			assertArrayEquals(strided.values(), tiled.values(), 0f);
+		}
+	}
+
+	@Test
+	public void testEncodingPlanIsReused() throws XGBoostError, IOException {
+		Random rng = new Random(123456);
+		Table data = Builders.newTableBuilder(100)
+				.addReal("A", i -> (i % 2) * 5 + rng.nextDouble())
+				.addNominal("B", i -> i % 3 == 0 ? "X" : i % 3 == 1 ? "Y" : "Z")
+				.addNominal("Label", i -> i % 2 == 0 ? "False" : "True")
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+
+		XGBoostModel model = XGBoostWrapper.train(data, null, Collections.singletonMap("seed", "123456"),
+				10, 0, () -> true);
+		assertNotNull(model);
+		FeatureEncoding encoding = model.getEncoding();
+		assertSame(encoding, model.getEncoding());
+		assertSame(encoding, encoding.adapt(data));
+
+		// Models created from a serialized booster compile the plan from the training header.
+		XGBoostModel copy = new XGBoostModel(new IOTable(data), Collections.emptyMap(), model.getIterations(),
+				model.getBooster());
+		assertEquals(encoding.width(), copy.getEncoding().width());
+		assertSame(copy.getEncoding(), copy.getEncoding());
+
+		String[] expected = new String[100];
+		String[] actual = new String[100];
+		XGBoostWrapper.predict(model, data, new HashMap<>()).fill(expected, 0);
+		XGBoostWrapper.predict(copy, data, new HashMap<>()).fill(actual, 0);
+		assertArrayEquals(expected, actual);
+	}
+
+	@Test
+	public void testEncodingAdaptsToDictionaries() throws XGBoostError, IOException {
+		String[] dictionary = {"One", "Two", "Three", "Four", "Five"};
+		Table data = Builders.newTableBuilder(100)
+				.addReal("A", i -> i % 7)
+				.addNominal("B", i -> i % 11 == 0 ? null : dictionary[i % 5])
+				.addNominal("C", i -> i % 2 == 0 ? "X" : "Y")
+				.addNominal("Label", i -> i % 5 < 2 ? "False" : "True")
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+
+		// Same rows, but reversed dictionaries with an additional category unknown to the training data.
+		String[] reversed = {"Six", "Five", "Four", "Three", "Two", "One"};
+		Table scoring = Builders.newTableBuilder(106)
+				.addReal("A", i -> i < 6 ? 0 : (i - 6) % 7)
+				.addNominal("B", i -> i < 6 ? reversed[i] : (i - 6) % 11 == 0 ? null : dictionary[(i - 6) % 5])
+				.addNominal("C", i -> i < 6 ? "Y" : (i - 6) % 2 == 0 ? "X" : "Y")
+				.addNominal("Label", i -> "False")
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX)
+				.rows(6, 106, CTX);
+
+		FeatureEncoding encoding = FeatureEncoding.compile(data);
+		assertNotSame(encoding, encoding.adapt(scoring));
+
+		FeatureMatrix.Dense expected = (FeatureMatrix.Dense) XGBoostWrapper.createFeatureMatrix(data, encoding,
+				FeatureMatrix.Layout.DENSE, CTX);
+		for (FeatureMatrix.Layout layout : Arrays.asList(FeatureMatrix.Layout.DENSE, FeatureMatrix.Layout.SPARSE)) {
+			FeatureMatrix actual = XGBoostWrapper.createFeatureMatrix(scoring, encoding, layout, CTX);
+			assertEquals(expected.width(), actual.width());
+			if (actual instanceof FeatureMatrix.Dense) {
+				assertArrayEquals(expected.values(), ((FeatureMatrix.Dense) actual).values(), 0f);
+			} else {
+				FeatureMatrix.Sparse sparse = (FeatureMatrix.Sparse) actual;
+				for (int row = 0; row < sparse.height(); row++) {
+					for (long i = sparse.rowHeaders()[row]; i < sparse.rowHeaders()[row + 1]; i++) {
+						assertEquals(expected.values()[row * sparse.width() + sparse.columnIndices()[(int) i]],
+								sparse.values()[(int) i], 0f);
+					}
+				}
+			}
+		}
+
+		XGBoostModel model = XGBoostWrapper.train(data, null, Collections.singletonMap("seed", "123456"),
+				10, 0, () -> true);
+		assertNotNull(model);
+		String[] expectedPrediction = new String[100];
+		String[] actualPrediction = new String[100];
+		XGBoostWrapper.predict(model, data, new HashMap<>()).fill(expectedPrediction, 0);
+		XGBoostWrapper.predict(model, scoring, new HashMap<>()).fill(actualPrediction, 0);
+		assertArrayEquals(expectedPrediction, actualPrediction);
+	}
+
+	@Test
+	public void testBoosterCache() throws XGBoostError, IOException {
+		Random rng = new Random(123456);
+		Table data = Builders.newTableBuilder(100)
+				.addReal("A", i -> rng.nextDouble())
+				.addReal("B", i -> rng.nextDouble())
+				.addReal("Label", i -> 10 * i)
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+
+		byte[][] models = new byte[3][];
+		for (int i = 0; i < models.length; i++) {
+			XGBoostModel model = XGBoostWrapper.train(data, null, Collections.emptyMap(), i + 1, 0, () -> true);
+			assertNotNull(model);
+			models[i] = model.getBooster();
+		}
+
+		int[] loads = {0};
+		BoosterCache.Loader loader = model -> {
+			loads[0]++;
+			return XGBoost.loadModel(model);
+		};
+
+		BoosterCache cache = new BoosterCache(2, Long.MAX_VALUE);
+		Booster pooled;
+		try (BoosterCache.Lease lease = cache.acquire(models[0], loader)) {
+			pooled = lease.booster();
+		}
+		try (BoosterCache.Lease first = cache.acquire(models[0], loader)) {
+			assertSame(pooled, first.booster());
+			// Concurrent users of the same model obtain distinct instances.
+			try (BoosterCache.Lease second = cache.acquire(models[0], loader)) {
+				assertNotSame(first.booster(), second.booster());
+			}
+			cache.acquire(models[1], loader).close();
+			cache.acquire(models[2], loader).close();
+
+			// The least recently used booster is evicted but remains usable while leased.
+			assertEquals(1, cache.getStatistics().getEvictions());
+			assertEquals(1, first.booster().getModelDump("", false).length);
+		}
+
+		BoosterCache.Statistics statistics = cache.getStatistics();
+		assertEquals(1, statistics.getHits());
+		assertEquals(4, statistics.getMisses());
+		assertEquals(2, statistics.getEntries());
+		assertEquals(models[1].length + models[2].length, statistics.getBytes());
+		assertEquals(4, loads[0]);
+
+		// Bounded by size, only the most recently used booster fits.
+		BoosterCache small = new BoosterCache(10, Math.max(models[1].length, models[2].length));
+		small.acquire(models[1], loader).close();
+		small.acquire(models[2], loader).close();
+		assertEquals(1, small.getStatistics().getEntries());
+		assertEquals(1, small.getStatistics().getEvictions());
+
+		cache.clear();
+		small.clear();
+		assertEquals(0, cache.getStatistics().getEntries());
+		assertEquals(0, small.getStatistics().getBytes());
+
+		// Repeated predictions with the same model hit the JVM-wide cache.
+		XGBoostModel model = XGBoostWrapper.train(data, null, Collections.emptyMap(), 5, 0, () -> true);
+		assertNotNull(model);
+		long hits = BoosterCache.getInstance().getStatistics().getHits();
+		XGBoostWrapper.predict(model, data, new HashMap<>());
+		XGBoostWrapper.predict(model, data, new HashMap<>());
+		assertTrue(BoosterCache.getInstance().getStatistics().getHits() > hits);
+	}
+
+	@Test
+	public void testConcurrentPrediction() throws XGBoostError, IOException, InterruptedException, ExecutionException {
+		String[] dictionary = {"One", "Two", "Three", "Four", "Five"};
+		Random rng = new Random(123456);
+		Table data = Builders.newTableBuilder(500)
+				.addReal("A", i -> (i % 5) * 10 + rng.nextDouble())
+				.addReal("B", i -> rng.nextDouble())
+				.addNominal("C", i -> dictionary[(i * 7) % 5])
+				.addNominal("Label", i -> dictionary[i % 5])
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+		Table regressionData = Builders.newTableBuilder(500)
+				.addReal("A", i -> rng.nextDouble())
+				.addReal("B", i -> i % 3)
+				.addReal("Label", i -> 10 * i)
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+
+		List<XGBoostModel> models = Arrays.asList(
+				XGBoostWrapper.train(data, null, Collections.emptyMap(), 20, 0, () -> true),
+				XGBoostWrapper.train(regressionData, null, Collections.emptyMap(), 20, 0, () -> true));
+		List<Table> tables = Arrays.asList(data, regressionData);
+
+		List<Map<String, double[]>> expected = new ArrayList<>();
+		for (int i = 0; i < models.size(); i++) {
+			expected.add(predictScores(models.get(i), tables.get(i)));
+		}
+
+		int threads = 8;
+		int repetitions = 25;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Callable<Void>> tasks = new ArrayList<>();
+			for (int thread = 0; thread < threads; thread++) {
+				int first = thread;
+				tasks.add(() -> {
+					for (int repetition = 0; repetition < repetitions; repetition++) {
+						int i = (first + repetition) % models.size();
+						Map<String, double[]> actual = predictScores(models.get(i), tables.get(i));
+						assertEquals(expected.get(i).keySet(), actual.keySet());
+						for (String key : actual.keySet()) {
+							assertArrayEquals(expected.get(i).get(key), actual.get(key), 0);
+						}
+					}
+					return null;
+				});
+			}
+			for (Future<Void> future : executor.invokeAll(tasks)) {
+				// Rethrows assertion errors of the workers.
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Returns the prediction (as category indices for classification tasks) and scores of the given model.
+	 */
+	private static Map<String, double[]> predictScores(XGBoostModel model, Table table)
+			throws XGBoostError, IOException {
+		Map<String, Column> scores = new HashMap<>();
+		Column prediction = XGBoostWrapper.predict(model, table, scores);
+		scores.put("prediction", prediction);
+
+		Map<String, double[]> result = new HashMap<>();
+		for (Map.Entry<String, Column> entry : scores.entrySet()) {
+			double[] values = new double[table.height()];
+			if (entry.getValue().type().category() == Column.Category.CATEGORICAL) {
+				CategoricalReader reader = Readers.categoricalReader(entry.getValue());
+				for (int i = 0; i < values.length; i++) {
+					values[i] = reader.read();
+				}
+			} else {
+				entry.getValue().fill(values, 0);
+			}
+			result.put(entry.getKey(), values);
+		}
+		return result;
+	}
+
+	@Test
+	public void testThreadBudget() {
+		ThreadBudget budget = new ThreadBudget();
+		try (ThreadBudget.Grant first = budget.acquire(8)) {
+			assertEquals(8, first.threads());
+			try (ThreadBudget.Grant second = budget.acquire(8)) {
+				// Concurrent jobs share the parallelism equally.
+				assertEquals(4, first.threads());
+				assertEquals(4, second.threads());
+				assertEquals(2, budget.getJobs());
+				try (ThreadBudget.Grant third = budget.acquire(8)) {
+					assertEquals(2, first.threads());
+					assertEquals(2, third.threads());
+				}
+			}
+			// The remaining job gets all threads again.
+			assertEquals(8, first.threads());
+		}
+		assertEquals(0, budget.getJobs());
+
+		// Every job is granted at least one thread.
+		List<ThreadBudget.Grant> grants = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			grants.add(budget.acquire(2));
+		}
+		for (ThreadBudget.Grant grant : grants) {
+			assertEquals(1, grant.threads());
+			grant.close();
+		}
+		assertEquals(0, budget.getJobs());
+
+		// 8 jobs on 64 cores run with 8 threads each.
+		grants.clear();
+		for (int i = 0; i < 8; i++) {
+			grants.add(budget.acquire(64));
+		}
+		for (ThreadBudget.Grant grant : grants) {
+			assertEquals(8, grant.threads());
+		}
+		grants.forEach(ThreadBudget.Grant::close);
+		assertEquals(0, budget.getJobs());
+	}
+
+	@Test
+	public void testConcurrentTraining() throws XGBoostError, IOException, InterruptedException, ExecutionException {
+		String[] dictionary = {"One", "Two", "Three", "Four", "Five"};
+		Random rng = new Random(123456);
+		Table data = Builders.newTableBuilder(500)
+				.addReal("A", i -> (i % 5) * 10 + rng.nextDouble())
+				.addReal("B", i -> rng.nextDouble())
+				.addNominal("C", i -> dictionary[(i * 7) % 5])
+				.addNominal("Label", i -> dictionary[i % 5])
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+
+		// Single-threaded boosting yields reproducible models.
+		Map<String, String> parameters = new HashMap<>();
+		parameters.put("seed", "123456");
+		parameters.put("nthread", "1");
+		Map<String, double[]> expected = predictScores(XGBoostWrapper.train(data, null, parameters, 20, 0,
+				() -> true, PARALLEL_CTX), data);
+
+		int jobs = 8;
+		ExecutorService executor = Executors.newFixedThreadPool(jobs);
+		try {
+			List<Callable<XGBoostModel>> tasks = new ArrayList<>();
+			for (int job = 0; job < jobs; job++) {
+				tasks.add(() -> XGBoostWrapper.train(data, null, parameters, 20, 0, () -> true, PARALLEL_CTX));
+			}
+			for (Future<XGBoostModel> future : executor.invokeAll(tasks)) {
+				XGBoostModel model = future.get();
+				assertNotNull(model);
+				assertEquals(20, model.getIterations());
+				Map<String, double[]> actual = predictScores(model, data);
+				for (String key : expected.keySet()) {
+					assertArrayEquals(expected.get(key), actual.get(key), 0);
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(0, ThreadBudget.getInstance().getJobs());
+	}
+
+	@Test
+	public void testBlockedPrediction() throws XGBoostError, IOException {
+		String[] dictionary = {"One", "Two", "Three", "Four", "Five"};
+		Random rng = new Random(123456);
+		Table data = Builders.newTableBuilder(1000)
+				.addReal("A", i -> (i % 5) * 10 + rng.nextDouble())
+				.addReal("B", i -> i % 13 == 0 ? Double.NaN : rng.nextDouble())
+				.addNominal("C", i -> dictionary[(i * 7) % 5])
+				.addNominal("Label", i -> dictionary[i % 5])
+				.addBoolean("Binary", i -> i % 2 == 0 ? "False" : "True", "True")
+				.addReal("Numeric", i -> 10 * i)
+				.build(CTX);
+
+		for (String label : Arrays.asList("Label", "Binary", "Numeric")) {
+			List<String> columns = new ArrayList<>(Arrays.asList("A", "B", "C"));
+			columns.add(label);
+			Table table = Builders.newTableBuilder(data.columns(columns))
+					.addMetaData(label, ColumnRole.LABEL)
+					.build(CTX);
+			XGBoostModel model = XGBoostWrapper.train(table, null, Collections.emptyMap(), 10, 0, () -> true);
+			assertNotNull(model);
+
+			Map<String, double[]> expected = predictScores(model, table);
+			for (int blockSize : new int[]{1, 7, 999, 1000, 5000}) {
+				for (Context context : Arrays.asList(CTX, PARALLEL_CTX)) {
+					Map<String, Column> scores = new HashMap<>();
+					Column prediction = XGBoostWrapper.predict(model, table, scores, context, blockSize);
+					scores.put("prediction", prediction);
+					assertEquals(expected.keySet(), scores.keySet());
+					for (Map.Entry<String, Column> entry : scores.entrySet()) {
+						double[] actual = new double[table.height()];
+						if (entry.getValue().type().category() == Column.Category.CATEGORICAL) {
+							CategoricalReader reader = Readers.categoricalReader(entry.getValue());
+							for (int i = 0; i < actual.length; i++) {
+								actual[i] = reader.read();
+							}
+						} else {
+							entry.getValue().fill(actual, 0);
+						}
+						assertArrayEquals(expected.get(entry.getKey()), actual, 0);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testTreeEnsembleMatchesNative() throws XGBoostError, IOException {
+		String[] dictionary = {"One", "Two", "Three", "Four", "Five"};
+		Random rng = new Random(123456);
+		Table data = Builders.newTableBuilder(1000)
+				.addReal("A", i -> (i % 5) * 10 + rng.nextDouble())
+				.addReal("B", i -> i % 13 == 0 ? Double.NaN : rng.nextDouble())
+				.addReal("C", i -> i % 3 == 0 ? 0 : rng.nextGaussian())
+				.addNominal("D", i -> i % 11 == 0 ? null : dictionary[(i * 7) % 5])
+				.addBoolean("E", i -> i % 7 == 0 ? null : i % 2 == 0 ? "False" : "True", "True")
+				.addNominal("Label", i -> dictionary[i % 5])
+				.addBoolean("Binary", i -> i % 2 == 0 ? "False" : "True", "True")
+				.addReal("Numeric", i -> 10 * i)
+				.addReal("Count", i -> i % 4)
+				.build(CTX);
+
+		Map<String, String> parallelTrees = new HashMap<>();
+		parallelTrees.put("num_parallel_tree", "2");
+		parallelTrees.put("subsample", "0.8");
+		Map<String, String> poisson = Collections.singletonMap("objective", "count:poisson");
+
+		List<Object[]> fixtures = Arrays.asList(
+				new Object[]{"Label", Collections.emptyMap()},
+				new Object[]{"Label", parallelTrees},
+				new Object[]{"Binary", Collections.emptyMap()},
+				new Object[]{"Numeric", Collections.emptyMap()},
+				new Object[]{"Count", poisson});
+		for (Object[] fixture : fixtures) {
+			String label = (String) fixture[0];
+			@SuppressWarnings("unchecked")
+			Map<String, String> parameters = (Map<String, String>) fixture[1];
+			List<String> columns = new ArrayList<>(Arrays.asList("A", "B", "C", "D", "E"));
+			columns.add(label);
+			Table table = Builders.newTableBuilder(data.columns(columns))
+					.addMetaData(label, ColumnRole.LABEL)
+					.build(CTX);
+			XGBoostModel model = XGBoostWrapper.train(table, null, parameters, 10, 0, () -> true);
+			assertNotNull(model);
+			assertEnsembleMatchesNative(model, table);
+		}
+	}
+
+	@Test
+	public void testTrainWithoutContextKeepsDefaultThreads() throws XGBoostError, IOException {
+		Table data = Builders.newTableBuilder(100)
+				.addReal("A", i -> i)
+				.addReal("Label", i -> 2 * i)
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+		int jobs = ThreadBudget.getInstance().getJobs();
+		XGBoostModel model = XGBoostWrapper.train(data, null, Collections.emptyMap(), 5, 0, () -> {
+			// The training does not take threads from the budget.
+			assertEquals(jobs, ThreadBudget.getInstance().getJobs());
+			return true;
+		});
+		assertNotNull(model);
+		assertFalse(model.getParameters().containsKey("nthread"));
+
+		model = XGBoostWrapper.train(data, null, Collections.emptyMap(), 5, 0, () -> true, CTX);
+		assertNotNull(model);
+		assertEquals("1", model.getParameters().get("nthread"));
+	}
+
+	@Test
+	public void testJavaScoringIsOptIn() throws XGBoostError, IOException {
+		Table data = Builders.newTableBuilder(100)
+				.addReal("A", i -> i)
+				.addReal("B", i -> 2 * i)
+				.addReal("Label", i -> 4 * i)
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+		XGBoostModel model = XGBoostWrapper.train(data, null, Collections.emptyMap(), 5, 0, () -> true);
+		assertNotNull(model);
+		assertFalse(model.getParameters().containsKey(XGBoostWrapper.JAVA_SCORING));
+
+		model = XGBoostWrapper.train(data, null, Collections.singletonMap(XGBoostWrapper.JAVA_SCORING, "true"), 5, 0,
+				() -> true);
+		assertNotNull(model);
+		assertEquals("true", model.getParameters().get(XGBoostWrapper.JAVA_SCORING));
+	}
+
+	/**
+	 * Asserts that the pure-Java scorer of the given model reproduces the native margins bit by bit and the native
+	 * predictions up to the precision of the objective's transformation.
+	 */
+	private static void assertEnsembleMatchesNative(XGBoostModel model, Table table) throws XGBoostError,
+			IOException {
+		TreeEnsemble ensemble = model.getEnsemble();
+		assertNotNull(ensemble);
+
+		// Raw margins are bit-exact.
+		FeatureMatrix.Dense features = (FeatureMatrix.Dense) XGBoostWrapper.createFeatureMatrix(table,
+				model.getEncoding(), FeatureMatrix.Layout.DENSE, CTX);
+		float[][] expectedMargins;
+		Booster booster = XGBoost.loadModel(model.getBooster());
+		try {
+			DMatrix matrix = features.toDMatrix();
+			try {
+				expectedMargins = booster.predict(matrix, true);
+			} finally {
+				matrix.dispose();
+			}
+		} finally {
+			booster.dispose();
+		}
+		float[] margins = new float[ensemble.numGroups()];
+		for (int i = 0; i < table.height(); i++) {
+			ensemble.predict(features.values(), i * features.width(), margins, 0, true);
+			assertArrayEquals(expectedMargins[i], margins, 0f);
+		}
+
+		// Transformed predictions use Java's exp instead of expf and might differ in the last bit.
+		Map<String, double[]> expected = predictScores(model, table);
+		for (Context context : Arrays.asList(CTX, PARALLEL_CTX)) {
+			Map<String, Column> scores = new HashMap<>();
+			Column prediction = XGBoostWrapper.predict(model, ensemble, table, scores, context);
+			scores.put("prediction", prediction);
+			assertEquals(expected.keySet(), scores.keySet());
+			for (Map.Entry<String, Column> entry : scores.entrySet()) {
+				double[] actual = new double[table.height()];
+				if (entry.getValue().type().category() == Column.Category.CATEGORICAL) {
+					CategoricalReader reader = Readers.categoricalReader(entry.getValue());
+					for (int i = 0; i < actual.length; i++) {
+						actual[i] = reader.read();
+					}
+					assertArrayEquals(expected.get(entry.getKey()), actual, 0);
+				} else {
+					// Relative tolerance, e.g., for the exponential transformation of large margins.
+					entry.getValue().fill(actual, 0);
+					double[] expectedValues = expected.get(entry.getKey());
+					for (int i = 0; i < actual.length; i++) {
+						assertEquals(expectedValues[i], actual[i], 1e-6 * Math.max(1, Math.abs(expectedValues[i])));
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testTreeEnsembleUnsupportedObjective() throws XGBoostError, IOException {
+		Table table = Builders.newTableBuilder(100)
+				.addReal("A", i -> i % 3)
+				.addReal("Label", i -> i % 2)
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+		XGBoostModel model = XGBoostWrapper.train(table, null, Collections.singletonMap("booster", "gblinear"), 10,
+				0, () -> true);
+		assertNotNull(model);
+		assertNull(model.getEnsemble());
+	}
+
+	@Test
+	public void testDistributedTraining() throws XGBoostError, IOException, InterruptedException {
+		Assume.assumeTrue("Rabit tracker requires Python", isPythonAvailable());
+
+		Random rng = new Random(123456);
+		Table data = Builders.newTableBuilder(1000)
+				.addReal("A", i -> i % 5)
+				.addReal("B", i -> i % 13 == 0 ? Double.NaN : rng.nextDouble())
+				.addReal("Label", i -> 10 * (i % 5) + rng.nextDouble())
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+		Table validation = data.rows(0, 100, CTX);
+
+		XGBoostModel model = XGBoostWrapper.trainDistributed(data, validation, Collections.emptyMap(), 20, 5, 2,
+				() -> true, CTX);
+		assertNotNull(model);
+		assertTrue(model.getIterations() > 0);
+		assertEquals(0, ThreadBudget.getInstance().getJobs());
+
+		// The workers jointly learn the dominant feature.
+		double[] prediction = predictScores(model, data).get("prediction");
+		double[] label = new double[data.height()];
+		data.column("Label").fill(label, 0);
+		for (int i = 0; i < label.length; i++) {
+			assertEquals(label[i], prediction[i], 1.0);
+		}
+	}
+
+	@Test
+	public void testAbortDistributedTraining() throws XGBoostError, IOException, InterruptedException {
+		Assume.assumeTrue("Rabit tracker requires Python", isPythonAvailable());
+
+		Table data = Builders.newTableBuilder(1000)
+				.addReal("A", i -> i % 5)
+				.addReal("Label", i -> 10 * (i % 5))
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+		assertNull(XGBoostWrapper.trainDistributed(data, null, Collections.emptyMap(), 1000, 0, 2, () -> false,
+				CTX));
+	}
+
+	private static boolean isPythonAvailable() throws InterruptedException {
+		try {
+			Process process = new ProcessBuilder("python", "--version").redirectErrorStream(true).start();
+			return process.waitFor() == 0;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	@Test
+	public void testWarmStart() throws XGBoostError, IOException {
+		String[] dictionary = {"One", "Two", "Three", "Four", "Five"};
+		Random rng = new Random(123456);
+		Table data = Builders.newTableBuilder(500)
+				.addReal("A", i -> (i % 5) * 10 + rng.nextDouble())
+				.addReal("B", i -> i % 13 == 0 ? Double.NaN : rng.nextDouble())
+				.addNominal("C", i -> dictionary[(i * 7) % 5])
+				.addNominal("Label", i -> dictionary[i % 5])
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+		Map<String, String> parameters = Collections.singletonMap("nthread", "1");
+
+		XGBoostModel initial = XGBoostWrapper.train(data, null, parameters, 10, 0, () -> true, CTX);
+		assertNotNull(initial);
+		XGBoostModel continued = XGBoostWrapper.train(data, null, parameters, 5, 0, () -> true, CTX, initial);
+		assertNotNull(continued);
+		assertEquals(15, continued.getIterations());
+		assertEquals(initial.getParameters().get("objective"), continued.getParameters().get("objective"));
+
+		// Continuing the boosting is equivalent to boosting for the total number of rounds at once.
+		XGBoostModel reference = XGBoostWrapper.train(data, null, parameters, 15, 0, () -> true, CTX);
+		Map<String, double[]> expected = predictScores(reference, data);
+		Map<String, double[]> actual = predictScores(continued, data);
+		assertEquals(expected.keySet(), actual.keySet());
+		for (String key : expected.keySet()) {
+			assertArrayEquals(expected.get(key), actual.get(key), 1e-6);
+		}
+
+		// Same rows, but reversed dictionaries: labels and features are mapped to the categories of the initial model.
+		Random replay = new Random(123456);
+		String[] reversed = {"Five", "Four", "Three", "Two", "One"};
+		Table shuffled = Builders.newTableBuilder(505)
+				.addReal("A", i -> i < 5 ? 0 : ((i - 5) % 5) * 10 + replay.nextDouble())
+				.addReal("B", i -> i < 5 ? 0 : (i - 5) % 13 == 0 ? Double.NaN : replay.nextDouble())
+				.addNominal("C", i -> i < 5 ? reversed[i] : dictionary[((i - 5) * 7) % 5])
+				.addNominal("Label", i -> i < 5 ? reversed[i] : dictionary[(i - 5) % 5])
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX)
+				.rows(5, 505, CTX);
+		XGBoostModel adapted = XGBoostWrapper.train(shuffled, null, parameters, 5, 0, () -> true, CTX, initial);
+		assertNotNull(adapted);
+		assertEquals(initial.getTrainingHeader().getTable().labels(), adapted.getTrainingHeader().getTable().labels());
+		Map<String, double[]> adaptedScores = predictScores(adapted, data);
+		for (String key : actual.keySet()) {
+			assertArrayEquals(actual.get(key), adaptedScores.get(key), 1e-6);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWarmStartWithDifferentFeatures() throws XGBoostError, ConversionException {
+		Table data = Builders.newTableBuilder(100)
+				.addReal("A", i -> i % 3)
+				.addReal("Label", i -> i)
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+		XGBoostModel initial = XGBoostWrapper.train(data, null, Collections.emptyMap(), 5, 0, () -> true, CTX);
+		Table other = Builders.newTableBuilder(100)
+				.addReal("B", i -> i % 3)
+				.addReal("Label", i -> i)
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+		XGBoostWrapper.train(other, null, Collections.emptyMap(), 5, 0, () -> true, CTX, initial);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWarmStartWithUnknownClass() throws XGBoostError, ConversionException {
+		String[] dictionary = {"One", "Two", "Three"};
+		Table data = Builders.newTableBuilder(100)
+				.addReal("A", i -> i % 3)
+				.addNominal("Label", i -> dictionary[i % 2])
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+		XGBoostModel initial = XGBoostWrapper.train(data, null, Collections.emptyMap(), 5, 0, () -> true, CTX);
+		Table other = Builders.newTableBuilder(100)
+				.addReal("A", i -> i % 3)
+				.addNominal("Label", i -> dictionary[i % 3])
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+		XGBoostWrapper.train(other, null, Collections.emptyMap(), 5, 0, () -> true, CTX, initial);
+	}
+
+	@Test
+	public void testCheckpointing() throws XGBoostError, IOException {
+		Random rng = new Random(123456);
+		Table data = Builders.newTableBuilder(400)
+				.addReal("A", i -> rng.nextDouble())
+				.addReal("B", i -> i % 11 == 0 ? Double.NaN : rng.nextDouble())
+				.addReal("Label", i -> i % 7 + rng.nextDouble())
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+		Table training = data.rows(0, 300, CTX);
+		Table validation = data.rows(300, 400, CTX);
+		Map<String, String> parameters = Collections.singletonMap("nthread", "1");
+		Map<String, String> other = new HashMap<>(parameters);
+		other.put("eta", "0.1");
+
+		Path directory = Files.createTempDirectory("xgboost-checkpoints");
+		File folder = directory.toFile();
+		try {
+			XGBoostModel reference = XGBoostWrapper.train(training, validation, parameters, 20, 5, () -> true, CTX);
+			XGBoostModel otherReference = XGBoostWrapper.train(training, validation, other, 20, 5, () -> true, CTX);
+			assertNotNull(reference);
+			assertNotNull(otherReference);
+
+			// Abort the training as soon as the first checkpoint has been written.
+			Checkpointing checkpointing = new Checkpointing(directory, 4, 0, true);
+			XGBoostModel aborted = XGBoostWrapper.train(training, validation, parameters, 20, 5,
+					() -> folder.list().length == 0, CTX, null, checkpointing);
+			assertNull(aborted);
+			assertEquals(1, folder.list().length);
+
+			// Different parameters do not match the checkpoint and start from scratch.
+			XGBoostModel fresh = XGBoostWrapper.train(training, validation, other, 20, 5, () -> true, CTX, null,
+					checkpointing);
+			assertNotNull(fresh);
+			assertEquals(otherReference.getIterations(), fresh.getIterations());
+			assertArrayEquals(predictScores(otherReference, data).get("prediction"),
+					predictScores(fresh, data).get("prediction"), 1e-6);
+			assertEquals(1, folder.list().length);
+
+			// Resuming yields the same model as the uninterrupted training and removes the checkpoint.
+			XGBoostModel resumed = XGBoostWrapper.train(training, validation, parameters, 20, 5, () -> true, CTX,
+					null, checkpointing);
+			assertNotNull(resumed);
+			assertEquals(reference.getIterations(), resumed.getIterations());
+			assertArrayEquals(predictScores(reference, data).get("prediction"),
+					predictScores(resumed, data).get("prediction"), 1e-6);
+			assertEquals(0, folder.list().length);
+		} finally {
+			for (File file : folder.listFiles()) {
+				Files.delete(file.toPath());
+			}
+			Files.delete(directory);
+		}
+	}
+
+	@Test
+	public void testCheckpointingWithSampling() throws XGBoostError, IOException {
+		Random rng = new Random(123456);
+		Table data = Builders.newTableBuilder(400)
+				.addReal("A", i -> rng.nextDouble())
+				.addReal("B", i -> rng.nextDouble())
+				.addReal("C", i -> rng.nextDouble())
+				.addReal("Label", i -> i % 7 + rng.nextDouble())
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+		Map<String, String> parameters = new HashMap<>();
+		parameters.put("nthread", "1");
+		parameters.put("seed", "42");
+		parameters.put("subsample", "0.8");
+		parameters.put("colsample_bytree", "0.8");
+
+		Path directory = Files.createTempDirectory("xgboost-checkpoints");
+		File folder = directory.toFile();
+		try {
+			Checkpointing checkpointing = new Checkpointing(directory, 4, 0, true);
+			XGBoostModel reference = XGBoostWrapper.train(data, null, parameters, 12, 0, () -> true, CTX, null,
+					checkpointing);
+			assertNotNull(reference);
+			assertEquals("true", reference.getParameters().get("seed_per_iteration"));
+			assertEquals(0, folder.list().length);
+
+			XGBoostModel aborted = XGBoostWrapper.train(data, null, parameters, 12, 0,
+					() -> folder.list().length == 0, CTX, null, checkpointing);
+			assertNull(aborted);
+			assertEquals(1, folder.list().length);
+
+			// The sampling in the resumed rounds is the same as in the uninterrupted training.
+			XGBoostModel resumed = XGBoostWrapper.train(data, null, parameters, 12, 0, () -> true, CTX, null,
+					checkpointing);
+			assertNotNull(resumed);
+			assertEquals(0, folder.list().length);
+			assertArrayEquals(predictScores(reference, data).get("prediction"),
+					predictScores(resumed, data).get("prediction"), 0);
+		} finally {
+			for (File file : folder.listFiles()) {
+				Files.delete(file.toPath());
+			}
+			Files.delete(directory);
+		}
+	}
+
+	@Test
+	public void testCheckpointingWithDifferentEncoding() throws XGBoostError, IOException {
+		String[] dictionary = {"u", "v", "w", "x", "y", "z"};
+		Random rng = new Random(123456);
+		Table data = Builders.newTableBuilder(300)
+				.addNominal("A", i -> dictionary[i % dictionary.length])
+				.addReal("Label", i -> i % 7 + rng.nextDouble())
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+		Map<String, String> parameters = Collections.singletonMap("nthread", "1");
+		Map<String, String> indexed = new HashMap<>(parameters);
+		indexed.put(XGBoostWrapper.CATEGORICAL_ENCODING, XGBoostWrapper.INDEX_ENCODING);
+
+		Path directory = Files.createTempDirectory("xgboost-checkpoints");
+		File folder = directory.toFile();
+		try {
+			XGBoostModel reference = XGBoostWrapper.train(data, null, indexed, 10, 0, () -> true, CTX);
+			assertNotNull(reference);
+
+			Checkpointing checkpointing = new Checkpointing(directory, 4, 0, true);
+			XGBoostModel aborted = XGBoostWrapper.train(data, null, parameters, 10, 0,
+					() -> folder.list().length == 0, CTX, null, checkpointing);
+			assertNull(aborted);
+			assertEquals(1, folder.list().length);
+
+			// The encoding options are part of the fingerprint: the one-hot checkpoint is neither resumed nor removed.
+			XGBoostModel fresh = XGBoostWrapper.train(data, null, indexed, 10, 0, () -> true, CTX, null,
+					checkpointing);
+			assertNotNull(fresh);
+			assertArrayEquals(predictScores(reference, data).get("prediction"),
+					predictScores(fresh, data).get("prediction"), 1e-6);
+			assertEquals(1, folder.list().length);
+		} finally {
+			for (File file : folder.listFiles()) {
+				Files.delete(file.toPath());
+			}
+			Files.delete(directory);
+		}
+	}
+
+	@Test
+	public void testProgressAndTrainingLog() throws XGBoostError, ConversionException {
+		Random rng = new Random(123456);
+		Table data = Builders.newTableBuilder(200)
+				.addReal("A", i -> rng.nextDouble())
+				.addReal("Label", i -> i % 7 + rng.nextDouble())
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+		Table training = data.rows(0, 150, CTX);
+		Table validation = data.rows(150, 200, CTX);
+
+		List<Integer> progress = new ArrayList<>();
+		XGBoostModel model = XGBoostWrapper.train(training, validation, Collections.emptyMap(), 10, 0, () -> true,
+				CTX, null, null, progress::add);
+		assertNotNull(model);
+		assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10), progress);
+
+		TrainingLog log = model.getTrainingLog();
+		assertNotNull(log);
+		assertEquals(10, log.size());
+		assertEquals(0, log.getFirstRound());
+		assertEquals(Collections.singletonList("validation-rmse"), log.getMetrics());
+		for (int i = 0; i < log.size(); i++) {
+			assertTrue(log.getDuration(i) > 0);
+			assertTrue(log.getMetric(i, 0) > 0 && Float.isFinite(log.getMetric(i, 0)));
+		}
+
+		// The training stops in between rounds as soon as the sentinel returns false.
+		progress.clear();
+		XGBoostModel aborted = XGBoostWrapper.train(training, null, Collections.emptyMap(), 10, 0,
+				() -> progress.size() < 3, CTX, null, null, progress::add);
+		assertNull(aborted);
+		assertEquals(Arrays.asList(1, 2, 3), progress);
+	}
+
+	@Test
+	public void testTrainingLogNonFiniteMetrics() {
+		// XGBoost prints non-finite metrics, e.g., the AUC of a validation set with a single class, as in C.
+		TrainingLog log = new TrainingLog(0);
+		log.record(10, "[0]\tvalidation-auc:nan\tvalidation-logloss:0.5");
+		log.record(20, "[1]\tvalidation-auc:inf\tvalidation-logloss:-inf");
+		assertEquals(2, log.size());
+		assertEquals(Arrays.asList("validation-auc", "validation-logloss"), log.getMetrics());
+		assertTrue(Float.isNaN(log.getMetric(0, 0)));
+		assertEquals(0.5f, log.getMetric(0, 1), 0);
+		assertEquals(Float.POSITIVE_INFINITY, log.getMetric(1, 0), 0);
+		assertEquals(Float.NEGATIVE_INFINITY, log.getMetric(1, 1), 0);
+	}
+
+	@Test
+	public void testTrainGrid() throws XGBoostError, IOException {
+		Random rng = new Random(123456);
+		Table data = Builders.newTableBuilder(400)
+				.addReal("A", i -> rng.nextDouble())
+				.addReal("B", i -> i % 11 == 0 ? Double.NaN : rng.nextDouble())
+				.addReal("Label", i -> i % 7 + rng.nextDouble())
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+		Table training = data.rows(0, 300, CTX);
+		Table validation = data.rows(300, 400, CTX);
+
+		Map<String, List<String>> grid = new HashMap<>();
+		grid.put("max_depth", Arrays.asList("1", "3", "6"));
+		grid.put("eta", Arrays.asList("0.1", "0.3"));
+		List<Map<String, String>> candidates = GridSearch.expand(grid);
+		assertEquals(6, candidates.size());
+		assertEquals(6, new HashSet<>(candidates).size());
+
+		Map<String, String> parameters = Collections.singletonMap("nthread", "1");
+		GridSearch.Result result = XGBoostWrapper.trainGrid(training, validation, parameters, candidates, 20, 5, 3,
+				() -> true, PARALLEL_CTX);
+		assertNotNull(result);
+
+		Table performance = result.getPerformance();
+		assertEquals(6, performance.height());
+		assertEquals(Arrays.asList("eta", "max_depth", "iterations", "score", "time"), performance.labels());
+		double[] scores = new double[6];
+		performance.column("score").fill(scores, 0);
+		int best = 0;
+		for (int i = 1; i < scores.length; i++) {
+			if (scores[i] < scores[best]) {
+				best = i;
+			}
+		}
+		assertEquals(candidates.get(best), result.getBestParameters());
+
+		// The best model is the same as the one trained separately.
+		Map<String, String> bestParameters = new HashMap<>(parameters);
+		bestParameters.putAll(candidates.get(best));
+		XGBoostModel reference = XGBoostWrapper.train(training, validation, bestParameters, 20, 5, () -> true, CTX);
+		assertEquals(reference.getIterations(), result.getBestModel().getIterations());
+		assertArrayEquals(predictScores(reference, data).get("prediction"),
+				predictScores(result.getBestModel(), data).get("prediction"), 1e-6);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTrainGridVaryingMatrixParameter() throws XGBoostError, IOException {
+		Table data = Builders.newTableBuilder(100)
+				.addReal("A", i -> i)
+				.addReal("Label", i -> 2 * i)
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+		// Boosters with different bin counts would rebuild the histogram index of the shared matrix concurrently.
+		Map<String, String> parameters = Collections.singletonMap("tree_method", "hist");
+		List<Map<String, String>> candidates = Arrays.asList(Collections.singletonMap("max_bin", "16"),
+				Collections.singletonMap("max_bin", "256"));
+		XGBoostWrapper.trainGrid(data, data, parameters, candidates, 5, 0, 2, () -> true, PARALLEL_CTX);
+	}
+
+	@Test
+	public void testGridSearchSample() {
+		Map<String, List<String>> grid = new HashMap<>();
+		grid.put("max_depth", Arrays.asList("1", "2", "3", "4", "5", "6", "7", "8", "9", "10"));
+		grid.put("eta", Arrays.asList("0.01", "0.05", "0.1", "0.2", "0.3"));
+		grid.put("subsample", Arrays.asList("0.5", "0.75", "1"));
+
+		List<Map<String, String>> sample = GridSearch.sample(grid, 10, 42);
+		assertEquals(10, sample.size());
+		assertEquals(10, new HashSet<>(sample).size());
+		assertEquals(sample, GridSearch.sample(grid, 10, 42));
+		for (Map<String, String> candidate : sample) {
+			assertEquals(grid.keySet(), candidate.keySet());
+		}
+
+		// Grids smaller than the requested number are returned in full.
+		assertEquals(150, GridSearch.sample(grid, 1000, 42).size());
+	}
+
+	@Test
+	public void testCrossValidate() throws XGBoostError, IOException {
+		String[] dictionary = {"One", "Two", "Three"};
+		Random rng = new Random(123456);
+		Table data = Builders.newTableBuilder(300)
+				.addReal("A", i -> (i % 3) * 10 + rng.nextDouble() * 15)
+				.addReal("B", i -> i % 13 == 0 ? Double.NaN : rng.nextDouble())
+				.addNominal("Label", i -> dictionary[i % 3])
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+		Map<String, String> parameters = Collections.singletonMap("nthread", "1");
+
+		CrossValidation.Result result = XGBoostWrapper.crossValidate(data, parameters, 10, 5, 42, () -> true,
+				PARALLEL_CTX);
+		assertNotNull(result);
+		Table metrics = result.getFoldMetrics();
+		assertEquals(5, metrics.height());
+		assertEquals(Arrays.asList("fold", "test-mlogloss"), metrics.labels());
+		double[] losses = new double[5];
+		metrics.column("test-mlogloss").fill(losses, 0);
+		for (double loss : losses) {
+			assertTrue(loss > 0 && loss < Math.log(3));
+		}
+
+		// The final model is the same as the one trained separately on all rows.
+		XGBoostModel reference = XGBoostWrapper.train(data, null, parameters, 10, 0, () -> true, CTX);
+		assertEquals(10, result.getModel().getIterations());
+		Map<String, double[]> expected = predictScores(reference, data);
+		Map<String, double[]> actual = predictScores(result.getModel(), data);
+		for (String key : expected.keySet()) {
+			assertArrayEquals(expected.get(key), actual.get(key), 1e-6);
+		}
+	}
+
+	@Test
+	public void testAssignFolds() {
+		String[] dictionary = {"One", "Two", "Three"};
+		Table data = Builders.newTableBuilder(103)
+				.addReal("A", i -> i)
+				.addNominal("Label", i -> dictionary[i < 60 ? 0 : i < 90 ? 1 : 2])
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+
+		int[][] folds = CrossValidation.assignFolds(data, 4, 42);
+		assertEquals(4, folds.length);
+		Set<Integer> rows = new HashSet<>();
+		for (int[] fold : folds) {
+			assertTrue(fold.length == 25 || fold.length == 26);
+			int[] classes = new int[3];
+			for (int row : fold) {
+				assertTrue(rows.add(row));
+				classes[row < 60 ? 0 : row < 90 ? 1 : 2]++;
+			}
+			// Stratification: 60, 30 and 13 rows per class.
+			assertTrue(classes[0] == 15);
+			assertTrue(classes[1] == 7 || classes[1] == 8);
+			assertTrue(classes[2] == 3 || classes[2] == 4);
+
+			int[] rest = CrossValidation.complement(fold, data.height());
+			assertEquals(data.height() - fold.length, rest.length);
+			for (int row : rest) {
+				assertTrue(Arrays.binarySearch(fold, row) < 0);
+			}
+		}
+		assertEquals(103, rows.size());
+		assertArrayEquals(folds[0], CrossValidation.assignFolds(data, 4, 42)[0]);
+	}
+
+	@Test
+	public void testTrainWithHoldout() throws XGBoostError, IOException {
+		String[] dictionary = {"One", "Two", "Three"};
+		Random rng = new Random(123456);
+		Table data = Builders.newTableBuilder(300)
+				.addReal("A", i -> (i % 3) * 10 + rng.nextDouble() * 15)
+				.addReal("B", i -> i % 13 == 0 ? Double.NaN : rng.nextDouble())
+				.addNominal("Label", i -> dictionary[i < 150 ? 0 : i < 240 ? 1 : i % 3])
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+
+		int[][] split = CrossValidation.split(data, 0.7, 42);
+		assertEquals(210, split[0].length);
+		assertEquals(90, split[1].length);
+		int[] classes = new int[3];
+		for (int row : split[1]) {
+			classes[row < 150 ? 0 : row < 240 ? 1 : 2]++;
+		}
+		// Stratification: 150, 90 and 60 rows per class.
+		assertArrayEquals(new int[]{45, 27, 18}, classes);
+		assertArrayEquals(split[1], CrossValidation.split(data, 0.7, 42)[1]);
+
+		// Same model as for the tables selected beforehand.
+		Map<String, String> parameters = Collections.singletonMap("nthread", "1");
+		XGBoostModel model = XGBoostWrapper.trainWithHoldout(data, 0.7, 42, parameters, 50, 3, () -> true, CTX,
+				null, null, null, null);
+		XGBoostModel reference = XGBoostWrapper.train(data.rows(split[0], CTX), data.rows(split[1], CTX),
+				parameters, 50, 3, () -> true, CTX);
+		assertEquals(reference.getIterations(), model.getIterations());
+		assertEquals(reference.getTrainingLog().getMetrics(), model.getTrainingLog().getMetrics());
+		Map<String, double[]> expected = predictScores(reference, data);
+		Map<String, double[]> actual = predictScores(model, data);
+		for (String key : expected.keySet()) {
+			assertArrayEquals(expected.get(key), actual.get(key), 1e-6);
+		}
+	}
+
+	@Test(expected = CrossValidation.SplitException.class)
+	public void testHoldoutTooSmall() throws XGBoostError, ConversionException {
+		Table data = Builders.newTableBuilder(1)
+				.addReal("A", i -> i)
+				.addReal("Label", i -> i)
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+		XGBoostWrapper.trainWithHoldout(data, 0.7, 42, Collections.emptyMap(), 5, 3, () -> true, CTX, null, null,
+				null, null);
+	}
+
+	@Test
+	public void testExternalMemory() throws XGBoostError, IOException {
+		String[] dictionary = {"x", "y", "z"};
+		Table data = Builders.newTableBuilder(500)
+				.addReal("A", i -> i % 4)
+				.addNominal("B", i -> i % 11 == 0 ? null : dictionary[i % 3])
+				.addReal("Weight", i -> i % 2 + 1)
+				.addReal("Label", i -> 2 * (i % 4) + (i % 3 == 0 && i % 11 != 0 ? 1 : 0))
+				.addMetaData("Weight", ColumnRole.WEIGHT)
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+		Table training = data.rows(0, 400, CTX);
+		Table validation = data.rows(400, 500, CTX);
+		Map<String, String> parameters = new HashMap<>();
+		parameters.put("nthread", "1");
+		parameters.put("tree_method", "approx");
+
+		Path directory = Files.createTempDirectory("xgboost-cache");
+		try {
+			// Small pages to write the data in multiple steps.
+			ExternalMemory externalMemory = new ExternalMemory(directory, 64);
+			XGBoostModel model = XGBoostWrapper.train(training, validation, parameters, 10, 0, () -> true, CTX,
+					null, null, null, externalMemory);
+			assertNotNull(model);
+			assertEquals(10, model.getIterations());
+			// The cache files are removed after the training.
+			assertEquals(0, directory.toFile().list().length);
+
+			// Discrete features, i.e., the same splits as for the in-memory matrices.
+			XGBoostModel reference = XGBoostWrapper.train(training, validation, parameters, 10, 0, () -> true, CTX);
+			assertArrayEquals(predictScores(reference, data).get("prediction"),
+					predictScores(model, data).get("prediction"), 1e-5);
+			assertEquals(reference.getTrainingLog().getMetric(9, 0), model.getTrainingLog().getMetric(9, 0), 1e-5);
+
+			// Aborted trainings remove the cache files as well.
+			assertNull(XGBoostWrapper.train(training, validation, parameters, 10, 0, () -> false, CTX, null, null,
+					null, externalMemory));
+			assertEquals(0, directory.toFile().list().length);
+		} finally {
+			Files.delete(directory);
+		}
+	}
+
+	@Test
+	public void testPruneConstantAndMissingColumns() throws XGBoostError, IOException {
+		Random rng = new Random(123456);
+		Table data = Builders.newTableBuilder(200)
+				.addReal("A", i -> (i % 4) * 10 + rng.nextDouble())
+				.addReal("B", i -> 5)
+				.addReal("C", i -> Double.NaN)
+				.addNominal("D", i -> null)
+				.addNominal("E", i -> "X")
+				.addReal("F", i -> 0)
+				.addReal("G", i -> i % 3 == 0 ? 0 : 7)
+				.addReal("Label", i -> (i % 4) * 10 + (i % 3 == 0 ? 1 : 0))
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+		Map<String, String> parameters = Collections.singletonMap("nthread", "1");
+
+		XGBoostModel model = XGBoostWrapper.train(data, null, parameters, 10, 0, () -> true);
+		assertNotNull(model);
+		assertEquals(Arrays.asList("B", "C", "D", "E", "F"), model.getPrunedFeatures());
+		assertEquals(2, model.getEncoding().width());
+
+		// Same model as for the usable columns only, the training header still contains all columns.
+		XGBoostModel reference = XGBoostWrapper.train(data.columns(Arrays.asList("A", "G", "Label")), null,
+				parameters, 10, 0, () -> true);
+		assertTrue(reference.getPrunedFeatures().isEmpty());
+		assertEquals(data.labels(), model.getTrainingHeader().getTable().labels());
+		assertArrayEquals(predictScores(reference, data).get("prediction"),
+				predictScores(model, data).get("prediction"), 1e-6);
+
+		// Models restored from their parameters skip the same columns.
+		XGBoostModel copy = new XGBoostModel(new IOTable(data), toStringMap(model.getParameters()),
+				model.getIterations(), model.getBooster());
+		assertEquals(model.getPrunedFeatures(), copy.getPrunedFeatures());
+		assertArrayEquals(predictScores(model, data).get("prediction"),
+				predictScores(copy, data).get("prediction"), 1e-6);
+
+		AttributeWeights weights = XGBoostWrapper.getWeights(model, new IOTable(data));
+		assertTrue(weights.getWeight("A") > 0);
+		assertEquals(0, weights.getWeight("B"), 0);
+	}
+
+	@Test
+	public void testJoinLabels() {
+		List<String> labels = Arrays.asList("A", "", "with:colon", "12:34", "with,comma");
+		assertEquals(labels, FeatureEncoding.splitLabels(FeatureEncoding.joinLabels(labels)));
+		assertTrue(FeatureEncoding.splitLabels("").isEmpty());
+	}
+
+	@Test
+	public void testFeatureHashing() throws XGBoostError, IOException {
+		Random rng = new Random(123456);
+		Table data = Builders.newTableBuilder(1000)
+				.addReal("A", i -> rng.nextDouble())
+				.addNominal("Id", i -> "SKU-" + (i % 500))
+				.addNominal("Color", i -> i % 3 == 0 ? "red" : i % 3 == 1 ? "green" : "blue")
+				.addReal("Label", i -> (i % 500) % 7 + rng.nextDouble())
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+		Map<String, String> parameters = new HashMap<>();
+		parameters.put("nthread", "1");
+		parameters.put(XGBoostWrapper.HASHING_THRESHOLD, "100");
+		parameters.put(XGBoostWrapper.HASHING_BUCKETS, "16");
+
+		XGBoostModel model = XGBoostWrapper.train(data, null, parameters, 10, 0, () -> true);
+		assertNotNull(model);
+		FeatureEncoding encoding = model.getEncoding();
+		// One numeric feature, 16 buckets for the identifiers, one-hot encoding for the colors.
+		assertEquals(1 + 16 + 3, encoding.width());
+		assertEquals(FeatureEncoding.Kind.HASHED, encoding.kind(1));
+		assertEquals(FeatureEncoding.Kind.ONE_HOT, encoding.kind(2));
+		assertEquals("100", model.getParameters().get(XGBoostWrapper.HASHING_THRESHOLD));
+
+		// Models restored from their parameters use the same buckets.
+		XGBoostModel copy = new XGBoostModel(new IOTable(data), toStringMap(model.getParameters()),
+				model.getIterations(), model.getBooster());
+		assertEquals(FeatureEncoding.Kind.HASHED, copy.getEncoding().kind(1));
+		double[] expected = predictScores(model, data).get("prediction");
+		assertArrayEquals(expected, predictScores(copy, data).get("prediction"), 1e-6);
+
+		// Buckets only depend on the values, not on the dictionary: same rows, different dictionary order.
+		int[] reverse = IntStream.range(0, 1000).map(i -> 999 - i).toArray();
+		Table flipped = data.rows(reverse, CTX);
+		Table rebuilt = Builders.newTableBuilder(1000)
+				.add("A", flipped.column("A"))
+				.addNominal("Id", i -> "SKU-" + ((999 - i) % 500))
+				.add("Color", flipped.column("Color"))
+				.build(CTX);
+		Table reordered = rebuilt.rows(reverse, CTX);
+		assertNotEquals(data.column("Id").getDictionary().get(1), reordered.column("Id").getDictionary().get(1));
+		assertArrayEquals(expected, predictScores(model, reordered).get("prediction"), 1e-6);
+	}
+
+	@Test
+	public void testIndexEncoding() throws XGBoostError, IOException {
+		Random rng = new Random(654321);
+		Table data = Builders.newTableBuilder(1000)
+				.addReal("A", i -> rng.nextDouble())
+				.addNominal("Id", i -> i % 10 == 0 ? null : "SKU-" + (i % 50))
+				.addNominal("Flag", i -> i % 2 == 0 ? "yes" : "no")
+				.addReal("Label", i -> (i % 50) % 7 + rng.nextDouble())
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+		Map<String, String> parameters = new HashMap<>();
+		parameters.put("nthread", "1");
+		parameters.put(XGBoostWrapper.CATEGORICAL_ENCODING, XGBoostWrapper.INDEX_ENCODING);
+
+		XGBoostModel model = XGBoostWrapper.train(data, null, parameters, 10, 0, () -> true);
+		assertNotNull(model);
+		FeatureEncoding encoding = model.getEncoding();
+		// One feature per column, bicategorical columns are not affected.
+		assertEquals(3, encoding.width());
+		assertEquals(FeatureEncoding.Kind.INDEX, encoding.kind(1));
+		assertEquals(FeatureEncoding.Kind.BICATEGORICAL, encoding.kind(2));
+		assertEquals(XGBoostWrapper.INDEX_ENCODING, model.getParameters().get(XGBoostWrapper.CATEGORICAL_ENCODING));
+
+		// Models restored from their parameters use the same encoding.
+		XGBoostModel copy = new XGBoostModel(new IOTable(data), toStringMap(model.getParameters()),
+				model.getIterations(), model.getBooster());
+		assertEquals(FeatureEncoding.Kind.INDEX, copy.getEncoding().kind(1));
+		double[] expected = predictScores(model, data).get("prediction");
+		assertArrayEquals(expected, predictScores(copy, data).get("prediction"), 1e-6);
+
+		// Indices refer to the training dictionary: same rows, different dictionary order.
+		int[] reverse = IntStream.range(0, 1000).map(i -> 999 - i).toArray();
+		Table reordered = data.rows(reverse, CTX);
+		reordered = Builders.newTableBuilder(1000)
+				.add("A", reordered.column("A"))
+				.addNominal("Id", i -> (999 - i) % 10 == 0 ? null : "SKU-" + ((999 - i) % 50))
+				.add("Flag", reordered.column("Flag"))
+				.build(CTX)
+				.rows(reverse, CTX);
+		assertNotEquals(data.column("Id").getDictionary().get(1), reordered.column("Id").getDictionary().get(1));
+		assertArrayEquals(expected, predictScores(model, reordered).get("prediction"), 1e-6);
+	}
+
+	@Test
+	public void testDuplicateRows() {
+		// Zeros and missing values are both omitted from the native matrices, i.e., the first two rows are identical.
+		Table data = Builders.newTableBuilder(5)
+				.addReal("A", i -> new double[]{0, Double.NaN, 1, 1, 1}[i])
+				.addNominal("B", i -> new String[]{"x", "x", "y", "y", "z"}[i])
+				.addReal("Label", i -> new double[]{1, 1, 2, 3, 2}[i])
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+		FeatureEncoding encoding = FeatureEncoding.compile(data);
+		float[] label = {1, 1, 2, 3, 2};
+
+		DuplicateRows duplicates = DuplicateRows.find(data, encoding, label, new float[]{0.5f, 2, 1, 1, 1});
+		assertNotNull(duplicates);
+		assertArrayEquals(new int[]{0, 2, 3, 4}, duplicates.rows());
+		assertArrayEquals(new float[]{2.5f, 1, 1, 1}, duplicates.weights(), 1e-6f);
+
+		// Without weights, the groups are weighted by their size.
+		duplicates = DuplicateRows.find(data, encoding, label, null);
+		assertNotNull(duplicates);
+		assertArrayEquals(new float[]{2, 1, 1, 1}, duplicates.weights(), 1e-6f);
+
+		// No duplicates at all.
+		assertNull(DuplicateRows.find(data.rows(2, 5, CTX), encoding, new float[]{2, 3, 2}, null));
+	}
+
+	@Test
+	public void testTrainWithDeduplicatedRows() throws XGBoostError, IOException {
+		Table data = Builders.newTableBuilder(1200)
+				.addReal("A", i -> i % 4)
+				.addNominal("B", i -> i % 7 == 0 ? null : "v" + (i % 3))
+				.addReal("Weight", i -> 1 + (i % 2))
+				.addMetaData("Weight", ColumnRole.WEIGHT)
+				.addReal("Label", i -> (i % 4) * 2 + (i % 7 == 0 ? 0 : i % 3) + (i % 2) * 0.5)
+				.addMetaData("Label", ColumnRole.LABEL)
+				.build(CTX);
+		Map<String, String> parameters = new HashMap<>();
+		parameters.put("nthread", "1");
+		parameters.put("tree_method", "exact");
+
+		XGBoostModel expected = XGBoostWrapper.train(data, null, parameters, 10, 0, () -> true);
+		parameters.put(XGBoostWrapper.DEDUPLICATE_ROWS, "true");
+		XGBoostModel deduplicated = XGBoostWrapper.train(data, null, parameters, 10, 0, () -> true);
+		assertNotNull(expected);
+		assertNotNull(deduplicated);
+		// The option is not passed to XGBoost.
+		assertFalse(deduplicated.getParameters().containsKey(XGBoostWrapper.DEDUPLICATE_ROWS));
+		assertArrayEquals(predictScores(expected, data).get("prediction"),
+				predictScores(deduplicated, data).get("prediction"), 1e-5);
+	}
+
+	private static Map<String, String> toStringMap(Map<String, Object> parameters) {
+		Map<String, String> map = new HashMap<>();
+		parameters.forEach((key, value) -> map.put(key, String.valueOf(value)));
+		return map;
+	}
+
 }